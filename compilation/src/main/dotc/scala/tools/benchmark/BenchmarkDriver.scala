@@ -1,23 +1,58 @@
 package scala.tools.benchmark
 
-import java.io.File
-import scala.tools.nsc.BaseBenchmarkDriver
+import java.io.{File, OutputStream}
+import java.nio.file.{Path, Paths}
+import scala.tools.nsc.{BaseBenchmarkDriver, BenchmarkUtils, OutputSizeProfiler}
 import dotty.tools.dotc.core.Contexts.ContextBase
+import dotty.tools.io.{AbstractFile, VirtualDirectory, VirtualFile}
 
 trait BenchmarkDriver extends BaseBenchmarkDriver {
-  def compileImpl(): Unit = {
+  private var classpathImagePath: String = _
+
+  def initClasspathImage(cacheRoot: Path): Unit = {
+    if (depsClasspath != null) {
+      val entries = depsClasspath.split(File.pathSeparator).toList.filter(_.nonEmpty).map(Paths.get(_))
+      classpathImagePath = BenchmarkUtils.classpathImage(entries, cacheRoot).toString
+    }
+  }
+
+  // Discards the classfiles after counting them in `OutputSizeProfiler`
+  private class CountingDirectory(name: String, parent: Option[VirtualDirectory]) extends VirtualDirectory(name, parent) {
+    override def subdirectoryNamed(name: String): AbstractFile = new CountingDirectory(name, Some(this))
+    override def fileNamed(name: String): AbstractFile = new VirtualFile(name, path + "/" + name) {
+      override def output: OutputStream = OutputSizeProfiler.countingStream(name)
+    }
+  }
+
+  def compileImpl(): Unit = compile(allArgs, Nil)
+
+  // Compiles `files` again after `compileImpl()`, against the classes it wrote to `tempDir`
+  def recompileImpl(files: List[String]): Unit = {
+    if (outputMode != "disk") throw new IllegalArgumentException(s"outputMode=$outputMode: recompiling needs the classfiles on disk")
+    compile(compilerArgs ++ extras ++ files, tempDir.getAbsolutePath :: Nil)
+  }
+
+  private def compile(args: List[String], extraClasspath: List[String]): Unit = {
     implicit val ctx = new ContextBase().initialCtx.fresh
     ctx.setSetting(ctx.settings.usejavacp, true)
-    if (depsClasspath != null) {
-      ctx.setSetting(ctx.settings.classpath,
-                     depsClasspath.mkString(File.pathSeparator))
+    val classpath =
+      if (classpathImagePath != null) classpathImagePath :: Nil
+      else if (depsClasspath != null) depsClasspath.mkString(File.pathSeparator) :: Nil
+      else Nil
+    if ((extraClasspath ++ classpath).nonEmpty) {
+      ctx.setSetting(ctx.settings.classpath, (extraClasspath ++ classpath).mkString(File.pathSeparator))
     }
     ctx.setSetting(ctx.settings.migration, false)
-    ctx.setSetting(ctx.settings.outputDir, dotty.tools.io.AbstractFile.getDirectory(tempDir.getAbsolutePath))
+    val outputDir = outputMode match {
+      case "disk" => AbstractFile.getDirectory(tempDir.getAbsolutePath)
+      case "memory" => new VirtualDirectory("(memory)", None)
+      case "count" => new CountingDirectory("(count)", None)
+    }
+    ctx.setSetting(ctx.settings.outputDir, outputDir)
     ctx.setSetting(ctx.settings.language, List("Scala2"))
     ctx.setSetting(ctx.settings.YdropComments, true)
     val compiler = new dotty.tools.dotc.Compiler
-    val reporter = dotty.tools.dotc.Bench.doCompile(compiler, allArgs)
+    val reporter = dotty.tools.dotc.Bench.doCompile(compiler, args)
     assert(!reporter.hasErrors)
   }
 }
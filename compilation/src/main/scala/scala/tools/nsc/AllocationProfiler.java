@@ -0,0 +1,96 @@
+package scala.tools.nsc;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+// Allocation of all threads (`-prof gc` only sees the benchmark thread) and time spent in GC, per op.
+// Allocation of threads that terminate during an iteration is not counted.
+public class AllocationProfiler implements InternalProfiler {
+
+    private ExtendedThreadMxBean threadMx = ExtendedThreadMxBean.proxy;
+    private boolean allocationSupported;
+    private HashMap<Long, Long> allocatedBefore;
+    private long gcTimeBefore;
+    private long gcCountBefore;
+
+    public AllocationProfiler() {
+        try {
+            allocationSupported = threadMx.isThreadAllocatedMemorySupported();
+            if (allocationSupported)
+                threadMx.setThreadAllocatedMemoryEnabled(true);
+        } catch (Exception e) {
+            allocationSupported = false;
+        }
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        allocatedBefore = allocatedBytes();
+        gcTimeBefore = gcTime();
+        gcCountBefore = gcCount();
+    }
+
+    private HashMap<Long, Long> allocatedBytes() {
+        HashMap<Long, Long> allocated = new HashMap<>();
+        if (!allocationSupported)
+            return allocated;
+        try {
+            long[] ids = threadMx.getAllThreadIds();
+            long[] bytes = threadMx.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != Thread.currentThread().getId() && bytes[i] != -1)
+                    allocated.put(ids[i], bytes[i]);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return allocated;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        List<NormResult> results = new ArrayList<>();
+        long allOps = result.getMetadata().getAllOps();
+
+        HashMap<Long, Long> allocatedAfter = allocatedBytes();
+        long deltaAllocated = 0;
+        for (Map.Entry<Long, Long> entry : allocatedAfter.entrySet()) {
+            // threads started during the iteration allocated everything they report
+            deltaAllocated += entry.getValue() - allocatedBefore.getOrDefault(entry.getKey(), 0L);
+        }
+        if (allocationSupported) {
+            results.add(new NormResult("threads.alloc.norm", deltaAllocated, allOps, "B/op"));
+        }
+        results.add(new NormResult("gc.time.norm", gcTime() - gcTimeBefore, allOps, "ms/op"));
+        results.add(new NormResult("gc.count.norm", gcCount() - gcCountBefore, allOps, "counts/op"));
+        return results;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Allocation of all threads and GC time, per op";
+    }
+}
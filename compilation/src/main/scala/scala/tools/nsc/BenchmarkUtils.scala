@@ -1,10 +1,14 @@
 package scala.tools.nsc
 
-import java.io.{IOException, PrintWriter}
+import java.io.{ByteArrayOutputStream, IOException, InputStream, PrintWriter}
 import java.net.URL
+import java.nio.charset.StandardCharsets
 import java.nio.file._
 import java.nio.file.attribute.BasicFileAttributes
+import java.security.MessageDigest
+import java.util.concurrent.{Callable, ExecutionException, Executors}
 import java.util.stream.Collectors
+import java.util.zip.{CRC32, ZipEntry, ZipFile, ZipOutputStream}
 
 import com.typesafe.config.ConfigFactory
 
@@ -14,29 +18,174 @@ import scala.io.Source
 import scala.io.Codec
 
 object BenchmarkUtils {
-  def prepareSources(sourceDir: Path, targetDir: Path, scalaVersion: String): List[String] = {
-    val filterProcessor = new FilterExprProcessor(scalaVersion)
+  // Bump when `prepareSources` or `FilterExprProcessor` change their output, to invalidate cached assemblies.
+  private val SourceAssemblyFormat = "1"
+  private val SourceAssemblyManifest = "sources.txt"
 
+  private def findSources(sourceDir: Path): List[Path] = {
     val allFiles = Files.walk(sourceDir, FileVisitOption.FOLLOW_LINKS).collect(Collectors.toList[Path]).asScala.toList
     def isSource(f: Path) = {
       val name = f.getFileName.toString
       name.endsWith(".scala") || name.endsWith(".java")
     }
+    allFiles.filter(isSource)
+  }
+
+  def prepareSources(sourceDir: Path, targetDir: Path, scalaVersion: String): List[String] = {
+    val filterProcessor = new FilterExprProcessor(scalaVersion)
+
+    findSources(sourceDir) map { f =>
+      val targetFile = targetDir.resolve(sourceDir.relativize(f))
+      Files.createDirectories(targetFile.getParent)
+      val w = new PrintWriter(targetFile.toFile)
+      val codec = new Codec(java.nio.charset.Charset.forName("UTF-8"))
+      Source.fromFile(f.toFile)(codec).getLines().foreach(line => {
+        val t = line.trim
+        if (t.startsWith("//#")) filterProcessor(t)
+        else if (filterProcessor.on) w.println(line)
+      })
+      w.close()
+      targetFile.toAbsolutePath.normalize.toString
+    }
+  }
+
+  /** Like `prepareSources`, but reuses the output of an earlier fork or run from a subdirectory of `cacheRoot`
+   *  named by the hash of the corpus sources, the Scala version and the filter rules. A new assembly is prepared
+   *  in a temporary directory and atomically renamed into place, so concurrent forks never see a partial one.
+   *
+   *  @return the assembly directory and the prepared source files, in the order of `prepareSources`.
+   */
+  def prepareSourcesCached(sourceDir: Path, cacheRoot: Path, scalaVersion: String): (Path, List[String]) = {
+    val key = sourceAssemblyKey(sourceDir, scalaVersion)
+    val assemblyDir = cacheRoot.resolve(key)
+    val manifest = assemblyDir.resolve(SourceAssemblyManifest)
+    publishDirectory(assemblyDir, Files.exists(manifest)) { tempDir =>
+      val prepared = prepareSources(sourceDir, tempDir, scalaVersion)
+      Files.write(tempDir.resolve(SourceAssemblyManifest), prepared.map(f => tempDir.relativize(Paths.get(f)).toString).asJava)
+    }
+    val files = Files.readAllLines(manifest).asScala.toList.map(f => assemblyDir.resolve(f).toAbsolutePath.normalize.toString)
+    (assemblyDir, files)
+  }
+
+  /** Creates `dir`, unless `isPublished`, by filling a temporary directory next to it with `prepare` and atomically
+   *  renaming it into place, so that concurrent forks never see a partial one. When a concurrent fork renames its
+   *  own first, the rename fails and that one is kept: with a `FileSystemException` for ENOTEMPTY on Linux, rather
+   *  than one of its subclasses `FileAlreadyExistsException` or `DirectoryNotEmptyException`.
+   */
+  def publishDirectory(dir: Path, isPublished: => Boolean)(prepare: Path => Unit): Unit = {
+    if (!isPublished) {
+      Files.createDirectories(dir.getParent)
+      val tempDir = Files.createTempDirectory(dir.getParent, dir.getFileName.toString + ".tmp")
+      try {
+        prepare(tempDir)
+        try Files.move(tempDir, dir, StandardCopyOption.ATOMIC_MOVE)
+        catch {
+          case _: FileSystemException if isPublished => // a concurrent fork got there first
+        }
+      } finally deleteRecursive(tempDir)
+    }
+  }
+
+  /** Copies an assembly from `prepareSourcesCached` to `targetDir`, for benchmarks that edit the sources
+   *  and so must not change the shared copy.
+   *
+   *  @return the copied source files, in the order of the assembly.
+   */
+  def copySourceAssembly(assemblyDir: Path, targetDir: Path): List[String] = {
+    Files.readAllLines(assemblyDir.resolve(SourceAssemblyManifest)).asScala.toList map { f =>
+      val targetFile = targetDir.resolve(f)
+      Files.createDirectories(targetFile.getParent)
+      Files.copy(assemblyDir.resolve(f), targetFile, StandardCopyOption.REPLACE_EXISTING)
+      targetFile.toAbsolutePath.normalize.toString
+    }
+  }
+
+  private def sourceAssemblyKey(sourceDir: Path, scalaVersion: String): String = {
+    val digest = MessageDigest.getInstance("SHA-256")
+    def update(s: String): Unit = {
+      digest.update(s.getBytes(StandardCharsets.UTF_8))
+      digest.update(0.toByte)
+    }
+    update(SourceAssemblyFormat)
+    update(String.valueOf(scalaVersion))
+    for (f <- findSources(sourceDir).sortBy(_.toString)) {
+      update(sourceDir.relativize(f).toString)
+      digest.update(Files.readAllBytes(f))
+    }
+    digest.digest().map(b => "%02x".format(b & 0xff)).mkString
+  }
+
+  /** A single uncompressed jar with the contents of `classpath`, so that the compiler opens one archive and
+   *  reads classfiles without inflating them. Built once into a subdirectory of `cacheRoot` named by the hash of
+   *  the classpath entries, and shared by later forks and runs. Earlier entries shadow later ones, as on a classpath.
+   */
+  def classpathImage(classpath: Seq[Path], cacheRoot: Path): Path = {
+    val digest = MessageDigest.getInstance("SHA-256")
+    for (entry <- classpath) {
+      // Size and modification time rather than contents, so that finding a built image doesn't read the jars.
+      val path = entry.toAbsolutePath.normalize
+      digest.update(s"$path ${Files.size(path)} ${Files.getLastModifiedTime(path).toMillis}\u0000".getBytes(StandardCharsets.UTF_8))
+    }
+    val key = digest.digest().map(b => "%02x".format(b & 0xff)).mkString
+    val image = cacheRoot.resolve(key + ".jar")
+    if (!Files.exists(image)) {
+      Files.createDirectories(cacheRoot)
+      val tempFile = Files.createTempFile(cacheRoot, key, ".tmp")
+      try {
+        writeClasspathImage(classpath, tempFile)
+        Files.move(tempFile, image, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+      } finally Files.deleteIfExists(tempFile)
+    }
+    image
+  }
 
-    allFiles collect {
-      case f if isSource(f) =>
-        val targetFile = targetDir.resolve(sourceDir.relativize(f))
-        Files.createDirectories(targetFile.getParent)
-        val w = new PrintWriter(targetFile.toFile)
-        val codec = new Codec(java.nio.charset.Charset.forName("UTF-8"))
-        Source.fromFile(f.toFile)(codec).getLines().foreach(line => {
-          val t = line.trim
-          if (t.startsWith("//#")) filterProcessor(t)
-          else if (filterProcessor.on) w.println(line)
-        })
-        w.close()
-        targetFile.toAbsolutePath.normalize.toString
+  private def writeClasspathImage(classpath: Seq[Path], target: Path): Unit = {
+    val seen = collection.mutable.HashSet[String]()
+    val out = new ZipOutputStream(Files.newOutputStream(target))
+    try {
+      def add(name: String, bytes: Array[Byte]): Unit = {
+        // Signatures of the original jars don't hold for the image
+        val isSignature = name.startsWith("META-INF/") && (name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA"))
+        if (!isSignature && seen.add(name)) {
+          val entry = new ZipEntry(name)
+          val crc = new CRC32
+          crc.update(bytes)
+          entry.setMethod(ZipEntry.STORED)
+          entry.setSize(bytes.length)
+          entry.setCompressedSize(bytes.length)
+          entry.setCrc(crc.getValue)
+          out.putNextEntry(entry)
+          out.write(bytes)
+          out.closeEntry()
+        }
+      }
+      for (entry <- classpath) {
+        if (Files.isDirectory(entry)) {
+          val files = Files.walk(entry).collect(Collectors.toList[Path]).asScala.filter(Files.isRegularFile(_)).sortBy(_.toString)
+          for (f <- files) add(entry.relativize(f).toString.replace(java.io.File.separatorChar, '/'), Files.readAllBytes(f))
+        } else if (Files.exists(entry)) {
+          val zip = new ZipFile(entry.toFile)
+          try {
+            for (zipEntry <- zip.entries.asScala if !zipEntry.isDirectory) {
+              val in = zip.getInputStream(zipEntry)
+              try add(zipEntry.getName, readAll(in))
+              finally in.close()
+            }
+          } finally zip.close()
+        }
+      }
+    } finally out.close()
+  }
+
+  private def readAll(in: InputStream): Array[Byte] = {
+    val bytes = new ByteArrayOutputStream
+    val buffer = new Array[Byte](64 * 1024)
+    var n = in.read(buffer)
+    while (n != -1) {
+      bytes.write(buffer, 0, n)
+      n = in.read(buffer)
     }
+    bytes.toByteArray
   }
 
   class FilterExprProcessor(scalaVersion: String) {
@@ -69,6 +218,14 @@ object BenchmarkUtils {
     }
   }
 
+  // Lines of the given source files, counted as line breaks, as their encoding doesn't matter
+  def countLines(files: List[String]): Long = files.map { f =>
+    val bytes = Files.readAllBytes(Paths.get(f))
+    var count = 0L
+    for (b <- bytes) if (b == '\n') count += 1
+    count
+  }.sum
+
   def deleteRecursive(directory: Path): Unit = {
     if (Files.exists(directory)) {
       Files.walkFileTree(directory, new SimpleFileVisitor[Path]() {
@@ -84,25 +241,97 @@ object BenchmarkUtils {
     }
   }
 
+  /** Fetches the jars listed by URL in `deps.txt` of the corpus to `deps.localdir`, in parallel, unless an earlier
+   *  fork or run already has. Jars are first looked up by file name in `deps.mirror`, if set.
+   *
+   *  Jars are checked against the SHA-256 sums in `deps.sha256` next to `deps.txt`, which uses the format of
+   *  `sha256sum`. A download is only moved into `deps.localdir` once it has been verified, and a jar there that
+   *  doesn't match is fetched again.
+   */
   def initDeps(corpusSourcePath: Path): Seq[Path] = {
-    val depsDir = Paths.get(ConfigFactory.load.getString("deps.localdir"))
+    val config = ConfigFactory.load
+    val depsDir = Paths.get(config.getString("deps.localdir"))
+    val mirror = config.getString("deps.mirror")
     val depsFile = corpusSourcePath.resolve("deps.txt")
-    val depsClasspath = new ListBuffer[Path]
     if (Files.exists(depsFile)) {
-      for (depUrlString <- Files.lines(depsFile).iterator().asScala) {
-        val depUrl = new URL(depUrlString)
-        val filename = Paths.get(depUrl.getPath).getFileName.toString
-        val depFile = depsDir.resolve(filename)
-        // TODO: check hash if file exists, or after downloading
-        if (!Files.exists(depFile)) {
-          if (!Files.exists(depsDir)) Files.createDirectories(depsDir)
-          val in = depUrl.openStream
-          Files.copy(in, depFile, StandardCopyOption.REPLACE_EXISTING)
-          in.close()
+      val hashes = readHashes(corpusSourcePath.resolve("deps.sha256"))
+      val depUrls = Files.readAllLines(depsFile).asScala.toList.map(_.trim).filter(_.nonEmpty).map(new URL(_))
+      val executor = Executors.newFixedThreadPool(math.min(depUrls.size, 8) max 1)
+      try {
+        val fetches = depUrls.map { depUrl =>
+          executor.submit(new Callable[Path] {
+            def call(): Path = fetchDep(depUrl, depsDir, mirror, hashes)
+          })
         }
-        depsClasspath += depFile
-      }
-      depsClasspath.result()
+        fetches.map { fetch =>
+          try fetch.get()
+          catch { case e: ExecutionException => throw e.getCause }
+        }
+      } finally executor.shutdownNow()
     } else Nil
   }
+
+  private def readHashes(hashFile: Path): Map[String, String] = {
+    if (!Files.exists(hashFile)) Map.empty
+    else Files.readAllLines(hashFile).asScala.toList.map(_.trim).filter(_.nonEmpty).map { line =>
+      val Array(hash, filename) = line.split("\\s+\\*?", 2)
+      (filename, hash.toLowerCase)
+    }.toMap
+  }
+
+  private def fetchDep(depUrl: URL, depsDir: Path, mirror: String, hashes: Map[String, String]): Path = {
+    val filename = Paths.get(depUrl.getPath).getFileName.toString
+    val depFile = depsDir.resolve(filename)
+    val expectedHash = hashes.get(filename)
+    def verified(f: Path) = expectedHash.forall(_ == sha256(f))
+    if (expectedHash.isEmpty)
+      System.err.println(s"No SHA-256 sum for $filename in deps.sha256, it will not be verified")
+
+    if (Files.exists(depFile) && !verified(depFile)) {
+      System.err.println(s"$depFile doesn't match its SHA-256 sum, fetching it again")
+      Files.delete(depFile)
+    }
+    if (!Files.exists(depFile)) {
+      Files.createDirectories(depsDir)
+      val mirrorUrl = if (mirror.isEmpty) Nil else new URL(new URL(if (mirror.endsWith("/")) mirror else mirror + "/"), filename) :: Nil
+      val failures = new ListBuffer[String]
+      val fetched = (mirrorUrl :+ depUrl).exists { url =>
+        val tempFile = Files.createTempFile(depsDir, filename, ".tmp")
+        try {
+          val in = url.openStream
+          try Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING)
+          finally in.close()
+          if (verified(tempFile)) {
+            // Concurrent forks may race to here, but with identical content.
+            Files.move(tempFile, depFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+            true
+          } else {
+            failures += s"$url: SHA-256 sum doesn't match ${expectedHash.get}"
+            false
+          }
+        } catch {
+          case e: IOException =>
+            failures += s"$url: $e"
+            false
+        } finally Files.deleteIfExists(tempFile)
+      }
+      if (!fetched)
+        throw new IOException(s"Could not fetch $filename:\n  " + failures.mkString("\n  "))
+    }
+    depFile
+  }
+
+  private def sha256(f: Path): String = {
+    val digest = MessageDigest.getInstance("SHA-256")
+    val in = Files.newInputStream(f)
+    try {
+      val buffer = new Array[Byte](64 * 1024)
+      var n = in.read(buffer)
+      while (n != -1) {
+        digest.update(buffer, 0, n)
+        n = in.read(buffer)
+      }
+    } finally in.close()
+    digest.digest().map(b => "%02x".format(b & 0xff)).mkString
+  }
 }
@@ -5,6 +5,7 @@ import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 
 @SuppressWarnings("unused")
 public abstract class ExtendedThreadMxBean implements ThreadMXBean {
@@ -195,7 +196,10 @@ class OtherThreadMxBean extends ExtendedThreadMxBean {
 
     @Override
     public long[] getThreadUserTime(long[] longs) throws Exception {
-        return new long[0];
+        long[] times = new long[longs.length];
+        for (int i = 0; i < longs.length; i++)
+            times[i] = underlying.getThreadUserTime(longs[i]);
+        return times;
     }
 
     @Override
@@ -215,7 +219,9 @@ class OtherThreadMxBean extends ExtendedThreadMxBean {
 
     @Override
     public long[] getThreadAllocatedBytes(long[] longs) throws Exception {
-        return new long[0];
+        long[] bytes = new long[longs.length];
+        Arrays.fill(bytes, -1);
+        return bytes;
     }
 
     @Override
@@ -225,7 +231,10 @@ class OtherThreadMxBean extends ExtendedThreadMxBean {
 
     @Override
     public long[] getThreadCpuTime(long[] longs) throws Exception {
-        return new long[0];
+        long[] times = new long[longs.length];
+        for (int i = 0; i < longs.length; i++)
+            times[i] = underlying.getThreadCpuTime(longs[i]);
+        return times;
     }
 
 }
@@ -248,13 +257,16 @@ class SunThreadMxBean extends ExtendedThreadMxBean {
         super(underlying);
         this.real = underlying;
         try {
-            getThreadUserTimeMethod = real.getClass().getMethod("getThreadUserTime", long[].class);
-            isThreadAllocatedMemoryEnabledMethod = real.getClass().getMethod("isThreadAllocatedMemoryEnabled");
-            setThreadAllocatedMemoryEnabledMethod = real.getClass().getMethod("setThreadAllocatedMemoryEnabled", Boolean.TYPE);
-            getThreadAllocatedBytesMethod1 = real.getClass().getMethod("getThreadAllocatedBytes", Long.TYPE);
-            getThreadAllocatedBytesMethod2 = real.getClass().getMethod("getThreadAllocatedBytes", long[].class);
-            isThreadAllocatedMemorySupportedMethod = real.getClass().getMethod("isThreadAllocatedMemorySupported");
-            getThreadCpuTimeMethod = real.getClass().getMethod("getThreadCpuTime", long[].class);
+            // Look up the methods on the exported interface, rather than the implementation class
+            // in `com.sun.management.internal`, which is inaccessible on JDK 16+.
+            Class<?> cls = Class.forName("com.sun.management.ThreadMXBean");
+            getThreadUserTimeMethod = cls.getMethod("getThreadUserTime", long[].class);
+            isThreadAllocatedMemoryEnabledMethod = cls.getMethod("isThreadAllocatedMemoryEnabled");
+            setThreadAllocatedMemoryEnabledMethod = cls.getMethod("setThreadAllocatedMemoryEnabled", Boolean.TYPE);
+            getThreadAllocatedBytesMethod1 = cls.getMethod("getThreadAllocatedBytes", Long.TYPE);
+            getThreadAllocatedBytesMethod2 = cls.getMethod("getThreadAllocatedBytes", long[].class);
+            isThreadAllocatedMemorySupportedMethod = cls.getMethod("isThreadAllocatedMemorySupported");
+            getThreadCpuTimeMethod = cls.getMethod("getThreadCpuTime", long[].class);
 
             getThreadUserTimeMethod.setAccessible(true);
             isThreadAllocatedMemoryEnabledMethod.setAccessible(true);
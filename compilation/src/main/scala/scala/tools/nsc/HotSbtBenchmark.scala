@@ -40,9 +40,7 @@ class HotSbtBenchmark {
   var sbtProcess: Process = _
   var inputRedirect: ProcessBuilder.Redirect = _
   var outputRedirect: ProcessBuilder.Redirect = _
-  var tempDir: Path = _
-  var srcDir: Path = _
-  var scalaHome: Path = _
+  var project: SbtProject = _
   var processOutputReader: BufferedReader = _
   var processInputReader: BufferedWriter = _
   var output= new java.lang.StringBuilder()
@@ -62,17 +60,10 @@ class HotSbtBenchmark {
 
   def buildDef =
     s"""
-       |scalaHome := Some(file("${scalaHome.toAbsolutePath.toString}"))
-       |
        |val cleanClasses = taskKey[Unit]("clean the classes directory")
        |
        |cleanClasses := IO.delete((classDirectory in Compile).value)
        |
-       |scalaSource in Compile := file("${srcDir.toAbsolutePath.toString}")
-       |
-       |libraryDependencies += "org.scala-lang" % "scala-compiler" % scalaVersion.value
-       |libraryDependencies += "org.scala-lang" % "scala-reflect" % scalaVersion.value
-       |
        |traceLevel := Int.MaxValue
        |traceLevel in runMain := Int.MaxValue
        |
@@ -83,20 +74,11 @@ class HotSbtBenchmark {
     """.stripMargin
 
   @Setup(Level.Trial) def spawn(): Unit = {
-    tempDir = Files.createTempDirectory("sbt-")
-    scalaHome = Files.createTempDirectory("scalaHome-")
-    initDepsClasspath()
-    srcDir = Files.createDirectory(tempDir.resolve("src"))
-    println(srcDir)
-    BenchmarkUtils.prepareSources(corpusSourcePath, srcDir, scalaVersion)
-    Files.createDirectory(tempDir.resolve("project"))
-    Files.write(tempDir.resolve("project/build.properties"), java.util.Arrays.asList("sbt.version=" + sbtVersion))
-    Files.write(tempDir.resolve("build.sbt"), buildDef.getBytes("UTF-8"))
-
-    val sbtLaucherPath = System.getProperty("sbt.launcher")
-    if (sbtLaucherPath == null) sys.error("System property -Dsbt.launcher absent")
-    val builder = new ProcessBuilder(sys.props("java.home") + "/bin/java", "-Xms2G", "-Xmx2G", "-Dsbt.log.format=false", "-jar", sbtLaucherPath)
-    builder.directory(tempDir.toFile)
+    project = new SbtProject(corpusSourcePath, scalaVersion, sbtVersion)
+    println(project.srcDir)
+    project.writeBuild(buildDef)
+
+    val builder = project.launcher()
     inputRedirect = builder.redirectInput()
     outputRedirect = builder.redirectOutput()
     sbtProcess = builder.start()
@@ -125,9 +107,11 @@ class HotSbtBenchmark {
       read = processOutputReader.read(buffer)
       if (read == -1) sys.error("EOF: " + output.toString)
       else {
+        // Only search the new output, and the end of the old in case the prompt straddles reads
+        val from = math.max(0, output.length - 2)
         output.append(buffer, 0, read)
-        if (output.toString.contains("\n> ")) {
-          if (output.toString.contains("[error")) sys.error(output.toString)
+        if (output.indexOf("\n> ", from) != -1) {
+          if (output.indexOf("[error") != -1) sys.error(output.toString)
           return
         }
       }
@@ -137,36 +121,9 @@ class HotSbtBenchmark {
 
   private def corpusSourcePath = Paths.get(s"../corpus/$source/$corpusVersion")
 
-  def initDepsClasspath(): Unit = {
-    val libDir = tempDir.resolve("lib")
-    Files.createDirectories(libDir)
-    for (depFile <- BenchmarkUtils.initDeps(corpusSourcePath)) {
-      val libDirFile = libDir.resolve(depFile.getFileName)
-      Files.copy(depFile, libDir)
-    }
-
-    val scalaHomeLibDir = scalaHome.resolve("lib")
-    Files.createDirectories(scalaHomeLibDir)
-    for (elem <- sys.props("java.class.path").split(File.pathSeparatorChar)) {
-      val jarFile = Paths.get(elem)
-      var name = jarFile.getFileName.toString
-      if (name.startsWith("scala") && name.endsWith(".jar")) {
-        if (name.startsWith("scala-library"))
-          name = "scala-library.jar"
-        else if (name.startsWith("scala-reflect"))
-          name = "scala-reflect.jar"
-        else if (name.startsWith("scala-compiler"))
-          name = "scala-compiler.jar"
-        Files.copy(jarFile, scalaHomeLibDir.resolve(name))
-      }
-    }
-
-  }
-
   @TearDown(Level.Trial) def terminate(): Unit = {
     processOutputReader.close()
     sbtProcess.destroyForcibly()
-    BenchmarkUtils.deleteRecursive(tempDir)
-    BenchmarkUtils.deleteRecursive(scalaHome)
+    project.delete()
   }
 }
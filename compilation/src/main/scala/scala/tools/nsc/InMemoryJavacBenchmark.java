@@ -0,0 +1,136 @@
+package scala.tools.nsc;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.openjdk.jmh.annotations.Mode.SampleTime;
+
+// Like `JavacBenchmark`, but the sources are listed and read once per fork and the classfiles are kept in memory,
+// so that comparisons with `HotScalacBenchmark` measure the compiler rather than directory walking and disk writes.
+// The standard file manager, and with it the index of the platform classes and the classpath, is shared by all
+// invocations; each invocation creates a new `JavacTask`, as the javax.tools API doesn't allow reusing one.
+@BenchmarkMode(SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3, jvmArgs = {"-Xms2G", "-Xmx2G"})
+@State(Scope.Thread)
+public class InMemoryJavacBenchmark {
+    @Param(value = {})
+    String source;
+
+    // This parameter is set by ScalacBenchmarkRunner / UploadingRunner based on the Scala version.
+    // When running the benchmark directly the "latest" symlink is used.
+    @Param(value = {"latest"})
+    String corpusVersion;
+
+    // `|`-separated javac options, e.g. `--release|8` on JDK 9+, where re2j's sources in `java.util.regex`
+    // would otherwise clash with the package in `java.base`.
+    @Param(value = {""})
+    String extraArgs;
+
+    private JavaCompiler compiler;
+    private List<String> options;
+    private StandardJavaFileManager standardFileManager;
+    private List<JavaFileObject> sources;
+
+    private Path findSourceDir() {
+        Path path = Paths.get("..", "corpus", source, corpusVersion);
+        return Files.exists(path) ? path : Paths.get(source);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        options = extraArgs.isEmpty() ? Collections.emptyList() : Arrays.asList(extraArgs.split("\\|"));
+        standardFileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(findSourceDir(), FileVisitOption.FOLLOW_LINKS)) {
+            files = stream.filter(f -> f.getFileName().toString().endsWith(".java")).sorted().collect(Collectors.toList());
+        }
+        if (files.isEmpty())
+            throw new IllegalArgumentException("No Java sources in " + findSourceDir());
+        sources = new ArrayList<>();
+        for (Path file : files)
+            sources.add(new MemorySource(file.toAbsolutePath().normalize().toUri(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        standardFileManager.close();
+    }
+
+    @Benchmark
+    public int bench() {
+        MemoryFileManager fileManager = new MemoryFileManager(standardFileManager);
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+        if (!task.call())
+            throw new RuntimeException("Compilation failed: " + diagnostics.getDiagnostics());
+        return fileManager.classfiles.size();
+    }
+
+    static final class MemorySource extends SimpleJavaFileObject {
+        private final String content;
+
+        MemorySource(URI uri, String content) {
+            super(uri, Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+
+    static final class MemoryClassfile extends SimpleJavaFileObject {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        MemoryClassfile(String className) {
+            super(URI.create("mem:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+    }
+
+    // Reads the classpath through the shared standard file manager, and collects the classfiles in memory
+    static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        final Map<String, MemoryClassfile> classfiles = new HashMap<>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+            if (kind != JavaFileObject.Kind.CLASS)
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            MemoryClassfile classfile = new MemoryClassfile(className);
+            classfiles.put(className, classfile);
+            return classfile;
+        }
+
+        @Override
+        public void close() {
+            // the standard file manager is closed in `tearDown`
+        }
+    }
+}
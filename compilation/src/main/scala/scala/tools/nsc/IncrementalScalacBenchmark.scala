@@ -0,0 +1,80 @@
+package scala.tools.nsc
+
+import java.nio.charset.StandardCharsets
+import java.nio.file._
+import java.util.concurrent.TimeUnit
+
+import com.typesafe.config.{Config, ConfigFactory}
+import org.openjdk.jmh.annotations._
+
+import scala.collection.JavaConverters._
+
+// Times the recompilation of the files touched by an edit after a full compilation of the corpus, as an
+// incremental compiler would after a change in an IDE or build server. The edit is read from the
+// `edits.conf` manifest of the corpus and is applied and reverted in turn before each invocation.
+//
+// With `-president=true` the files are recompiled by the resident compiler of the full compilation;
+// otherwise, by a new compiler against the classes of the full compilation.
+@BenchmarkMode(Array(org.openjdk.jmh.annotations.Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3, jvmArgs = Array("-Xms2G", "-Xmx2G", "-Xss2M"))
+class IncrementalScalacBenchmark extends ScalacBenchmark {
+  @Param(value = Array("method-body"))
+  var edit: String = _
+
+  private var sourceDir: Path = _
+  private var editedFile: Path = _
+  private var original: String = _
+  private var edited: String = _
+  private var recompiledFiles: List[String] = _
+  private var applied = false
+  private var compiled = false
+
+  // A private copy, as the edits must not change the source assembly shared with other forks
+  override lazy val sourceFiles: List[String] = {
+    if (source.startsWith("@")) throw new IllegalArgumentException("IncrementalScalacBenchmark does not support @argsfile sources")
+    sourceDir = Files.createTempDirectory(Paths.get(ConfigFactory.load.getString("benchmark.outdir")), "sources")
+    BenchmarkUtils.copySourceAssembly(sourceAssemblyDir, sourceDir)
+  }
+
+  // An op recompiles the edited files against the classes of the corpus, so neither the lines of the corpus nor
+  // those of the edited files measure it
+  override protected def linesPerOp: Long = 0
+
+  @Setup(Level.Trial) def initEdit(): Unit = {
+    val manifest = corpusSourcePath.resolve("edits.conf")
+    if (!Files.exists(manifest)) throw new IllegalArgumentException(s"No edit manifest $manifest")
+    val edits = ConfigFactory.parseFile(manifest.toFile)
+    if (!edits.hasPath(edit)) throw new IllegalArgumentException(s"No edit $edit in $manifest, expected one of ${edits.root.keySet.asScala.mkString(", ")}")
+    val config: Config = edits.getConfig(edit)
+    sourceFiles // copy the sources
+    editedFile = sourceDir.resolve(config.getString("file"))
+    original = new String(Files.readAllBytes(editedFile), StandardCharsets.UTF_8)
+    val find = config.getString("find")
+    if (!original.contains(find)) throw new IllegalArgumentException(s"Edit $edit: `$find` not found in $editedFile")
+    edited = original.replace(find, config.getString("replace"))
+    val recompile = if (config.hasPath("recompile")) config.getStringList("recompile").asScala.toList else Nil
+    recompiledFiles = (editedFile :: recompile.map(sourceDir.resolve)).map(_.toAbsolutePath.normalize.toString)
+    applied = false
+    compiled = false
+  }
+
+  @Setup(Level.Invocation) def applyEdit(): Unit = {
+    // The full compilation that the benchmark recompiles after, here as it needs the other trial setups
+    if (!compiled) {
+      compileImpl()
+      compiled = true
+    }
+    applied = !applied
+    Files.write(editedFile, (if (applied) edited else original).getBytes(StandardCharsets.UTF_8))
+  }
+
+  @TearDown(Level.Trial) def clearSources(): Unit = {
+    if (sourceDir != null) BenchmarkUtils.deleteRecursive(sourceDir)
+  }
+
+  @Benchmark
+  def compile(): Unit = recompileImpl(recompiledFiles)
+}
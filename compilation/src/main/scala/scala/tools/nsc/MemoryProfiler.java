@@ -0,0 +1,167 @@
+package scala.tools.nsc;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.profile.ProfilerException;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.Defaults;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Memory needed by the compiler, to size the machines running it:
+//  - `heap.peak`: the largest heap in use, garbage included. The heap only grows between collections, so this is the
+//    largest heap in use before a GC, or at the end of the iteration.
+//  - `heap.live.peak`: the largest live set, the memory the compiler can't do without, taken as the heap in use after
+//    a full GC. The heap after a young GC still holds the garbage of the old generation, so it isn't counted.
+//  - `phase.<name>.live`: the largest live set while the phase `<name>` runs in any thread, as recorded by the scalac
+//    `BenchmarkDriver` in `PhaseTimings`.
+//  - `metaspace.growth.norm` and `codecache.growth.norm`: the growth per op of class metadata and of JIT compiled
+//    code, from the peak usage of their pools, which is large in the first compilations of a fork and should be
+//    close to 0 once warm.
+// The heap is only sampled by the collector, and a generational collector with a large enough heap may do no full GC
+// in an iteration, which reports no live set then. `-prof scala.tools.nsc.MemoryProfiler:gcAtPhaseEnd=true` forces a
+// full GC at the end of each phase, which samples the live set of every phase, with any collector, but slows the
+// compilation down: use it for memory results only. Its GCs aren't counted in the phase timings.
+public class MemoryProfiler implements InternalProfiler {
+    private static final double BYTES_PER_MB = 1024 * 1024d;
+
+    private final Set<String> heapPools = new HashSet<>();
+    private final NotificationListener listener = (notification, handback) -> {
+        if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+            gcCompleted(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+    };
+    private final boolean gcAtPhaseEnd;
+    private long peak;
+    private long livePeak;
+    private final Map<String, Long> phaseLivePeaks = new LinkedHashMap<>();
+    private final Map<String, Long> nonHeapBefore = new HashMap<>();
+
+    public MemoryProfiler(String initLine) throws ProfilerException {
+        boolean gcAtPhaseEnd = false;
+        for (String option : initLine.split(";")) {
+            if (option.isEmpty())
+                continue;
+            String[] keyValue = option.split("=", 2);
+            if (keyValue.length != 2 || !keyValue[0].equals("gcAtPhaseEnd"))
+                throw new ProfilerException("Unknown option " + option + ", expected gcAtPhaseEnd=true|false");
+            gcAtPhaseEnd = Boolean.parseBoolean(keyValue[1]);
+        }
+        this.gcAtPhaseEnd = gcAtPhaseEnd;
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            } else {
+                nonHeapBefore.put(pool.getName(), pool.getUsage().getUsed());
+                pool.resetPeakUsage();
+            }
+        }
+        synchronized (this) {
+            peak = 0;
+            livePeak = 0;
+            phaseLivePeaks.clear();
+        }
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+        if (gcAtPhaseEnd)
+            PhaseTimings.onPhaseCompleted(this::phaseCompleted);
+    }
+
+    private long heapUsed(Map<String, MemoryUsage> usage) {
+        long used = 0;
+        for (Map.Entry<String, MemoryUsage> entry : usage.entrySet()) {
+            if (heapPools.contains(entry.getKey()))
+                used += entry.getValue().getUsed();
+        }
+        return used;
+    }
+
+    // Notifications are sent after the GC by another thread, so the phases running then may have started since.
+    private synchronized void gcCompleted(GarbageCollectionNotificationInfo info) {
+        peak = Math.max(peak, heapUsed(info.getGcInfo().getMemoryUsageBeforeGc()));
+        // "end of minor GC" for young GCs, and G1's mixed GCs, which leave garbage in the old generation
+        if (info.getGcAction().equals("end of major GC")) {
+            long live = heapUsed(info.getGcInfo().getMemoryUsageAfterGc());
+            livePeak = Math.max(livePeak, live);
+            for (String phase : PhaseTimings.runningPhases())
+                phaseLivePeaks.merge(phase, live, Math::max);
+        }
+    }
+
+    private void phaseCompleted(String phase) {
+        System.gc();
+        long live = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        synchronized (this) {
+            livePeak = Math.max(livePeak, live);
+            phaseLivePeaks.merge(phase, live, Math::max);
+        }
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        if (gcAtPhaseEnd)
+            PhaseTimings.onPhaseCompleted(null);
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            try {
+                ((NotificationEmitter) gc).removeNotificationListener(listener);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        List<Result> results = new ArrayList<>();
+        long allOps = result.getMetadata().getAllOps();
+        long metaspaceGrowth = 0;
+        long codeCacheGrowth = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            String name = pool.getName();
+            if (!nonHeapBefore.containsKey(name))
+                continue;
+            long growth = Math.max(0, pool.getPeakUsage().getUsed() - nonHeapBefore.get(name));
+            if (name.equals("Metaspace"))
+                metaspaceGrowth += growth;
+            else if (name.startsWith("CodeHeap") || name.equals("Code Cache"))
+                codeCacheGrowth += growth;
+        }
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        synchronized (this) {
+            results.add(new ScalarResult(Defaults.PREFIX + "heap.peak", Math.max(peak, heapUsed) / BYTES_PER_MB, "MB", AggregationPolicy.MAX));
+            if (livePeak != 0)
+                results.add(new ScalarResult(Defaults.PREFIX + "heap.live.peak", livePeak / BYTES_PER_MB, "MB", AggregationPolicy.MAX));
+            for (Map.Entry<String, Long> entry : phaseLivePeaks.entrySet())
+                results.add(new ScalarResult(Defaults.PREFIX + "phase." + entry.getKey() + ".live", entry.getValue() / BYTES_PER_MB, "MB", AggregationPolicy.MAX));
+        }
+        if (allOps != 0) {
+            results.add(new NormResult("metaspace.growth.norm", metaspaceGrowth, allOps, "B/op"));
+            results.add(new NormResult("codecache.growth.norm", codeCacheGrowth, allOps, "B/op"));
+        }
+        return results;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Peak heap, live heap after full GCs per phase, and metaspace and code cache growth";
+    }
+}
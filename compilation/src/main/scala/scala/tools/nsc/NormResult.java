@@ -0,0 +1,83 @@
+package scala.tools.nsc;
+
+import org.openjdk.jmh.results.*;
+import org.openjdk.jmh.util.ScoreFormatter;
+
+import java.util.Collection;
+import java.util.Collections;
+
+// Below are some ugly contortions to avoid the average of averages error you'd get if we just used a
+// `ScalarResult(scalar / allOps)`. There is probably a much nicer way to do this in JMH.
+class NormResult extends Result<NormResult> {
+    private static final long serialVersionUID = -1262685915873231436L;
+
+    private String prefix;
+    private final double scalar;
+    private final long ops;
+    private final String unit;
+
+    public NormResult(String prefix, double scalar, long ops, String unit) {
+        super(ResultRole.SECONDARY, Defaults.PREFIX + prefix, of(Double.NaN), "---", AggregationPolicy.AVG);
+        this.prefix = prefix;
+        this.scalar = scalar;
+        this.ops = ops;
+        this.unit = unit;
+    }
+
+    @Override
+    protected Aggregator<NormResult> getThreadAggregator() {
+        return new Aggregator<NormResult>() {
+            @Override
+            public NormResult aggregate(Collection<NormResult> results) {
+                if (results.size() != 1) {
+                    throw new UnsupportedOperationException();
+                } else {
+                    return results.iterator().next();
+                }
+            }
+        };
+    }
+
+    @Override
+    protected Aggregator<NormResult> getIterationAggregator() {
+        NormResultAggregator normResultAggregator = new NormResultAggregator(Defaults.PREFIX + prefix, unit);
+        return (Aggregator<NormResult>) (Object) normResultAggregator;
+    }
+
+    @Override
+    protected Collection<? extends Result> getDerivativeResults() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", ScoreFormatter.format(scalar / ops), prefix);
+    }
+
+    @Override
+    public String extendedInfo() {
+        return "";
+    }
+
+    static class NormResultAggregator implements Aggregator<Result> {
+
+        private String prefix;
+        private String unit;
+
+        NormResultAggregator(String prefix, String unit) {
+            this.prefix = prefix;
+            this.unit = unit;
+        }
+
+        @Override
+        public Result aggregate(Collection<Result> results) {
+            double scalar = 0;
+            long ops = 0;
+            for (Result r : results) {
+                scalar += ((NormResult) r).scalar;
+                ops += ((NormResult) r).ops;
+            }
+            return new ScalarResult(prefix, scalar / ops, unit, AggregationPolicy.AVG);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package scala.tools.nsc;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Reports the number of classfiles and the bytes written per op, e.g. `output.classfiles.norm`, when the
+// benchmark runs with `-poutputMode=count`. The compiler's output is then discarded by the `BenchmarkDriver`
+// after being counted by `countingStream`.
+public class OutputSizeProfiler implements InternalProfiler {
+    private static final LongAdder classfiles = new LongAdder();
+    private static final LongAdder bytes = new LongAdder();
+
+    // An output stream for the file `name` that only counts what is written to it
+    public static OutputStream countingStream(String name) {
+        if (name.endsWith(".class"))
+            classfiles.increment();
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                bytes.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bytes.add(len);
+            }
+        };
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        classfiles.reset();
+        bytes.reset();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        List<NormResult> results = new ArrayList<>();
+        long allOps = result.getMetadata().getAllOps();
+        long classfileCount = classfiles.sumThenReset();
+        if (classfileCount != 0) {
+            results.add(new NormResult("output.classfiles.norm", classfileCount, allOps, "#/op"));
+            results.add(new NormResult("output.bytes.norm", bytes.sumThenReset(), allOps, "B/op"));
+        }
+        return results;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Number and size of the files written by the compiler with outputMode=count";
+    }
+}
@@ -0,0 +1,47 @@
+package scala.tools.nsc;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// Reports the wall time, CPU time and allocation of each compiler phase as secondary results,
+// e.g. `phase.typer.wall.norm`. Only the scalac `BenchmarkDriver` records phase transitions.
+public class PhaseTimingProfiler implements InternalProfiler {
+    private static final double NANOS_PER_MILLI = 1000_000d;
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        // discard phases recorded outside of the measured iteration
+        PhaseTimings.drain();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        List<NormResult> results = new ArrayList<>();
+        long allOps = result.getMetadata().getAllOps();
+        for (Map.Entry<String, PhaseTimings.Totals> entry : PhaseTimings.drain().entrySet()) {
+            String prefix = "phase." + entry.getKey();
+            PhaseTimings.Totals totals = entry.getValue();
+            results.add(new NormResult(prefix + ".wall.norm", totals.wallNanos / NANOS_PER_MILLI, allOps, "ms/op"));
+            if (totals.cpuNanos != 0) {
+                results.add(new NormResult(prefix + ".cpu.norm", totals.cpuNanos / NANOS_PER_MILLI, allOps, "ms/op"));
+            }
+            if (totals.allocatedBytes != 0) {
+                results.add(new NormResult(prefix + ".alloc.norm", totals.allocatedBytes, allOps, "B/op"));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Per-phase wall time, CPU time and allocation of the compiler thread";
+    }
+}
@@ -0,0 +1,108 @@
+package scala.tools.nsc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Per-phase wall time, CPU time and allocated bytes of the compiling thread. The `BenchmarkDriver`
+// reports each phase transition of a `Global#Run` to a `Recorder`, and `PhaseTimingProfiler`
+// drains the accumulated totals at the end of each iteration.
+public final class PhaseTimings {
+    private static final ExtendedThreadMxBean threadMx = ExtendedThreadMxBean.proxy;
+    private static final LinkedHashMap<String, Totals> totals = new LinkedHashMap<>();
+    // The phase being run by the compiler of each thread, for `MemoryProfiler` to attribute GCs to phases
+    private static final Map<Long, String> runningPhases = new ConcurrentHashMap<>();
+    // Called in the compiling thread at the end of each phase, or null
+    private static volatile Consumer<String> phaseCompletedListener;
+
+    private PhaseTimings() {
+    }
+
+    public static Recorder start() {
+        return new Recorder();
+    }
+
+    // For work timed outside of this JVM, such as a compilation by an sbt server.
+    public static void record(String name, long wallNanos) {
+        add(name, wallNanos, 0, 0);
+    }
+
+    // The phases being run by all threads, as several compilers may run at once
+    static Collection<String> runningPhases() {
+        return new ArrayList<>(runningPhases.values());
+    }
+
+    static void onPhaseCompleted(Consumer<String> listener) {
+        phaseCompletedListener = listener;
+    }
+
+    static synchronized Map<String, Totals> drain() {
+        LinkedHashMap<String, Totals> result = new LinkedHashMap<>(totals);
+        totals.clear();
+        return result;
+    }
+
+    private static synchronized void add(String phaseName, long wallNanos, long cpuNanos, long allocatedBytes) {
+        Totals t = totals.computeIfAbsent(phaseName, k -> new Totals());
+        t.wallNanos += wallNanos;
+        t.cpuNanos += cpuNanos;
+        t.allocatedBytes += allocatedBytes;
+    }
+
+    private static long allocatedBytes(long threadId) {
+        try {
+            return threadMx.getThreadAllocatedBytes(threadId);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    static class Totals {
+        long wallNanos;
+        long cpuNanos;
+        long allocatedBytes;
+    }
+
+    public static final class Recorder {
+        private final long threadId = Thread.currentThread().getId();
+        private long wallTime;
+        private long cpuTime;
+        private long allocated;
+
+        private Recorder() {
+            snapshot();
+        }
+
+        private void snapshot() {
+            wallTime = System.nanoTime();
+            cpuTime = threadMx.getCurrentThreadCpuTime();
+            allocated = allocatedBytes(threadId);
+        }
+
+        // Called from `Run.advancePhase`, after `globalPhase` has moved on from the completed phase.
+        public void phaseCompleted(String phaseName) {
+            long prevWallTime = wallTime;
+            long prevCpuTime = cpuTime;
+            long prevAllocated = allocated;
+            snapshot();
+            long deltaAllocated = (allocated < 0 || prevAllocated < 0) ? 0 : allocated - prevAllocated;
+            add(phaseName, wallTime - prevWallTime, cpuTime - prevCpuTime, deltaAllocated);
+            Consumer<String> listener = phaseCompletedListener;
+            if (listener != null) {
+                listener.accept(phaseName);
+                snapshot(); // the work of the listener, e.g. a GC, isn't part of the next phase
+            }
+        }
+
+        public void phaseStarted(String phaseName) {
+            runningPhases.put(threadId, phaseName);
+        }
+
+        public void runCompleted() {
+            runningPhases.remove(threadId);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package scala.tools.nsc
+
+import java.io.File
+import java.nio.file._
+
+import scala.collection.JavaConverters._
+
+// A temporary sbt build of a corpus source, for the benchmarks that drive sbt: `HotSbtBenchmark` and
+// `SbtServerBenchmark`. Its `scalaHome` is made of the Scala jars on the classpath of the benchmark, so that sbt
+// compiles with the Scala version under test, and the dependencies of the corpus are unmanaged jars in `lib`.
+class SbtProject(corpusSourcePath: Path, scalaVersion: String, sbtVersion: String) {
+  val dir: Path = Files.createTempDirectory("sbt-")
+  val scalaHome: Path = Files.createTempDirectory("scalaHome-")
+  initDepsClasspath()
+  val srcDir: Path = Files.createDirectory(dir.resolve("src"))
+  BenchmarkUtils.prepareSources(corpusSourcePath, srcDir, scalaVersion)
+  Files.createDirectory(dir.resolve("project"))
+  Files.write(dir.resolve("project/build.properties"), java.util.Arrays.asList("sbt.version=" + sbtVersion))
+
+  // In the syntax of both sbt 0.13 and 1.x
+  private def settings =
+    s"""
+       |scalaHome := Some(file("${scalaHome.toAbsolutePath.toString}"))
+       |
+       |scalaSource in Compile := file("${srcDir.toAbsolutePath.toString}")
+       |
+       |libraryDependencies += "org.scala-lang" % "scala-compiler" % scalaVersion.value
+       |libraryDependencies += "org.scala-lang" % "scala-reflect" % scalaVersion.value
+    """.stripMargin
+
+  // Writes `build.sbt`, with the settings of the benchmark after those of this project
+  def writeBuild(buildDef: String): Unit = {
+    Files.write(dir.resolve("build.sbt"), (settings + buildDef).getBytes("UTF-8"))
+  }
+
+  // Launches sbt in the project with the launcher of the build running the benchmark
+  def launcher(jvmArgs: String*): ProcessBuilder = {
+    val sbtLauncherPath = System.getProperty("sbt.launcher")
+    if (sbtLauncherPath == null) sys.error("System property -Dsbt.launcher absent")
+    val command = List(sys.props("java.home") + "/bin/java", "-Xms2G", "-Xmx2G", "-Dsbt.log.format=false") ++ jvmArgs ++ List("-jar", sbtLauncherPath)
+    val builder = new ProcessBuilder(command.asJava)
+    builder.directory(dir.toFile)
+    builder
+  }
+
+  private def initDepsClasspath(): Unit = {
+    val libDir = dir.resolve("lib")
+    Files.createDirectories(libDir)
+    for (depFile <- BenchmarkUtils.initDeps(corpusSourcePath)) {
+      Files.copy(depFile, libDir.resolve(depFile.getFileName))
+    }
+
+    val scalaHomeLibDir = scalaHome.resolve("lib")
+    Files.createDirectories(scalaHomeLibDir)
+    for (elem <- sys.props("java.class.path").split(File.pathSeparatorChar)) {
+      val jarFile = Paths.get(elem)
+      var name = jarFile.getFileName.toString
+      if (name.startsWith("scala") && name.endsWith(".jar")) {
+        if (name.startsWith("scala-library"))
+          name = "scala-library.jar"
+        else if (name.startsWith("scala-reflect"))
+          name = "scala-reflect.jar"
+        else if (name.startsWith("scala-compiler"))
+          name = "scala-compiler.jar"
+        Files.copy(jarFile, scalaHomeLibDir.resolve(name))
+      }
+    }
+  }
+
+  def delete(): Unit = {
+    BenchmarkUtils.deleteRecursive(dir)
+    BenchmarkUtils.deleteRecursive(scalaHome)
+  }
+}
@@ -0,0 +1,199 @@
+package scala.tools.nsc
+
+import java.io._
+import java.net.{Socket, URI}
+import java.nio.charset.StandardCharsets
+import java.nio.file._
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+import scala.collection.JavaConverters._
+
+// Compiles the corpus with a running sbt 1.x server, sending `compile` as a JSON-RPC request over its socket,
+// as an IDE or the thin client would. `recompile=full` cleans before each compilation, `recompile=incremental`
+// edits `editedFiles` sources first, for Zinc to recompile.
+//
+// The score is the time to the server's response. The time of the compile task alone, measured in the server,
+// is reported as `phase.sbt.compile.wall.norm` with `-prof scala.tools.nsc.PhaseTimingProfiler`.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(org.openjdk.jmh.annotations.Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3)
+class SbtServerBenchmark {
+  @Param(value = Array())
+  var source: String = _
+
+  @Param(value = Array("1.3.7"))
+  var sbtVersion: String = _
+
+  @Param(value = Array("full", "incremental"))
+  var recompile: String = _
+
+  @Param(value = Array("1"))
+  var editedFiles: Int = _
+
+  @Param(value = Array(""))
+  var extraBuild: String = _
+
+  // This parameter is set by ScalacBenchmarkRunner / UploadingRunner based on the Scala version.
+  // When running the benchmark directly the "latest" symlink is used.
+  @Param(value = Array("latest"))
+  var corpusVersion: String = _
+
+  @Param(value = Array())
+  var scalaVersion: String = _
+
+  var sbtProcess: Process = _
+  var project: SbtProject = _
+  var socket: Socket = _
+  var in: BufferedInputStream = _
+  var out: OutputStream = _
+  var requestId = 0
+  var edits = 0
+
+  def buildDef =
+    s"""
+       |// TCP rather than a UNIX domain socket, which Java can't open before JDK 16
+       |Global / serverConnectionType := ConnectionType.Tcp
+       |
+       |commands += Command.command("benchCompile") { state =>
+       |  val start = System.nanoTime
+       |  val (next, _) = Project.extract(state).runTask(Compile / compile, state)
+       |  IO.write(file("compile-nanos.txt"), (System.nanoTime - start).toString)
+       |  next
+       |}
+       |
+       |$extraBuild
+    """.stripMargin
+
+  @Setup(Level.Trial) def spawn(): Unit = {
+    if (!sbtVersion.startsWith("1.")) sys.error(s"sbt $sbtVersion has no server, use HotSbtBenchmark")
+    project = new SbtProject(corpusSourcePath, scalaVersion, sbtVersion)
+    project.writeBuild(buildDef)
+
+    val builder = project.launcher("-Dsbt.server.forcestart=true")
+    // The shell keeps running while its input is open. Its output goes to a file, so it never blocks on a full pipe.
+    builder.redirectErrorStream(true)
+    builder.redirectOutput(project.dir.resolve("sbt.log").toFile)
+    sbtProcess = builder.start()
+    connect()
+    exec("benchCompile")
+  }
+
+  @Setup(Level.Invocation) def prepare(): Unit = {
+    recompile match {
+      case "full" => exec("clean")
+      case "incremental" => edit()
+      case _ => sys.error(s"Unknown recompile=$recompile, expected full or incremental")
+    }
+  }
+
+  @Benchmark
+  def compile(): Unit = {
+    exec("benchCompile")
+  }
+
+  @TearDown(Level.Invocation) def recordServerTime(): Unit = {
+    val nanos = new String(Files.readAllBytes(project.dir.resolve("compile-nanos.txt")), StandardCharsets.UTF_8).trim.toLong
+    PhaseTimings.record("sbt.compile", nanos)
+  }
+
+  // Changes the content, not just the timestamp, as Zinc compares hashes of the sources
+  private def edit(): Unit = {
+    edits += 1
+    val walk = Files.walk(project.srcDir)
+    val sources = try walk.iterator.asScala.filter(_.toString.endsWith(".scala")).toList.sortBy(_.toString) finally walk.close()
+    for (f <- sources.take(editedFiles))
+      Files.write(f, s"\n// edit $edits\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND)
+  }
+
+  private def connect(): Unit = {
+    // Written by the server once it listens
+    val activeJson = project.dir.resolve("project/target/active.json")
+    val deadline = System.nanoTime + TimeUnit.MINUTES.toNanos(10)
+    while (!Files.exists(activeJson)) {
+      if (!sbtProcess.isAlive || System.nanoTime > deadline)
+        sys.error("sbt server didn't start, see " + project.dir.resolve("sbt.log"))
+      Thread.sleep(100)
+    }
+    Thread.sleep(100) // let the server finish writing it
+    val active = new String(Files.readAllBytes(activeJson), StandardCharsets.UTF_8)
+    val uri = new URI(jsonString(active, "uri"))
+    socket = new Socket(uri.getHost, uri.getPort)
+    in = new BufferedInputStream(socket.getInputStream)
+    out = socket.getOutputStream
+    val token = jsonString(new String(Files.readAllBytes(Paths.get(jsonString(active, "tokenfilePath"))), StandardCharsets.UTF_8), "token")
+    request("initialize", s"""{"initializationOptions":{"token":"$token"}}""")
+  }
+
+  def exec(commandLine: String): Unit = {
+    request("sbt/exec", s"""{"commandLine":"$commandLine"}""")
+  }
+
+  // Sends a request and waits for its response, skipping the notifications (logs, diagnostics) sent meanwhile.
+  private def request(method: String, params: String): String = {
+    requestId += 1
+    val id = requestId
+    val body = s"""{"jsonrpc":"2.0","id":$id,"method":"$method","params":$params}""".getBytes(StandardCharsets.UTF_8)
+    out.write(s"Content-Length: ${body.length}\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+    out.write(body)
+    out.flush()
+    val IdPattern = ("\"id\"\\s*:\\s*\"?" + id + "\"?[,}]").r
+    while (true) {
+      val message = readMessage()
+      if (IdPattern.findFirstIn(message).isDefined) {
+        if (message.contains("\"error\"") || """"exitCode"\s*:\s*[1-9]""".r.findFirstIn(message).isDefined)
+          sys.error(s"$method $params failed: $message, see ${project.dir.resolve("sbt.log")}")
+        return message
+      }
+    }
+    throw new AssertionError()
+  }
+
+  private def readMessage(): String = {
+    var contentLength = -1
+    var line = readLine()
+    while (line.nonEmpty) {
+      if (line.toLowerCase.startsWith("content-length:")) contentLength = line.substring("content-length:".length).trim.toInt
+      line = readLine()
+    }
+    val body = new Array[Byte](contentLength)
+    var read = 0
+    while (read < contentLength) {
+      val n = in.read(body, read, contentLength - read)
+      if (n == -1) sys.error("sbt server closed the connection")
+      read += n
+    }
+    new String(body, StandardCharsets.UTF_8)
+  }
+
+  private def readLine(): String = {
+    val line = new java.lang.StringBuilder()
+    var c = in.read()
+    while (c != '\n') {
+      if (c == -1) sys.error("sbt server closed the connection")
+      if (c != '\r') line.append(c.toChar)
+      c = in.read()
+    }
+    line.toString
+  }
+
+  private def jsonString(json: String, key: String): String = {
+    val Pattern = ("\"" + key + "\"\\s*:\\s*\"([^\"]*)\"").r.unanchored
+    json match {
+      case Pattern(value) => value
+      case _ => sys.error(s"No $key in $json")
+    }
+  }
+
+  private def corpusSourcePath = Paths.get(s"../corpus/$source/$corpusVersion")
+
+  @TearDown(Level.Trial) def terminate(): Unit = {
+    if (socket != null) socket.close()
+    sbtProcess.destroyForcibly()
+    project.delete()
+  }
+}
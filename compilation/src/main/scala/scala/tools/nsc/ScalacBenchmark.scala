@@ -8,6 +8,7 @@ import com.typesafe.config.ConfigFactory
 import org.openjdk.jmh.annotations.Mode._
 import org.openjdk.jmh.annotations._
 
+import scala.collection.JavaConverters._
 import scala.tools.benchmark.BenchmarkDriver
 
 trait BaseBenchmarkDriver {
@@ -20,8 +21,12 @@ trait BaseBenchmarkDriver {
   def tempDir: File
   def corpusSourcePath: Path
   def compilerArgs: List[String]
+  def sourceAssemblyDir: Path
   def sourceFiles: List[String]
   def isResident: Boolean = false
+  def outputMode: String
+  def initClasspathImage(cacheRoot: Path): Unit
+  def recompileImpl(files: List[String]): Unit
 }
 
 @State(Scope.Benchmark)
@@ -46,26 +51,41 @@ class ScalacBenchmark extends BenchmarkDriver {
   @Param(value = Array())
   var scalaVersion: String = _
 
+  // Compile against a single uncompressed jar with the contents of the classpath, prepared once for all forks,
+  // to separate the cost of opening and indexing the classpath from that of compilation.
+  @Param(value = Array("false"))
+  var classpathImage: Boolean = false
+
+  // Where the compiler writes classfiles: `disk` (a temporary directory in `benchmark.outdir`), `memory`
+  // (a `VirtualDirectory`), or `count` (discarded, after counting them for `OutputSizeProfiler`), to measure
+  // the backend apart from the cost of I/O.
+  @Param(value = Array("disk"))
+  var outputMode: String = "disk"
+
   override def isResident = resident
 
   var depsClasspath: String = _
 
   lazy val compilerArgs: List[String] = if (source.startsWith("@")) source :: Nil else Nil
 
-  // lazy val so it's computed (and sources are copied) only once per JVM fork
+  // lazy val so it's computed (and sources are copied, unless cached by an earlier fork) only once per JVM fork
+  private lazy val sourceAssembly: (Path, List[String]) = {
+    val sourceAssemblyRoot = Paths.get(ConfigFactory.load.getString("sourceAssembly.localdir"))
+    BenchmarkUtils.prepareSourcesCached(findSourceDir, sourceAssemblyRoot, scalaVersion)
+  }
+
+  def sourceAssemblyDir: Path = sourceAssembly._1
+
   lazy val sourceFiles: List[String] =
     if (source.startsWith("@")) Nil
-    else {
-      val sourceDir = findSourceDir
-      val sourceAssemblyDir = Paths.get(ConfigFactory.load.getString("sourceAssembly.localdir"))
-      BenchmarkUtils.deleteRecursive(sourceAssemblyDir)
-      BenchmarkUtils.prepareSources(sourceDir, sourceAssemblyDir, scalaVersion)
-    }
+    else sourceAssembly._2
 
   var tempDir: File = null
 
   // Executed once per fork
   @Setup(Level.Trial) def initTemp(): Unit = {
+    if (!Set("disk", "memory", "count").contains(outputMode))
+      throw new IllegalArgumentException(s"Unknown outputMode $outputMode, expected disk, memory or count")
     val tempRootPath = ConfigFactory.load.getString("benchmark.outdir")
     val tempDirRoot = new java.io.File(tempRootPath)
     val tempFile = java.io.File.createTempFile("output", "", tempDirRoot)
@@ -78,7 +98,13 @@ class ScalacBenchmark extends BenchmarkDriver {
     BenchmarkUtils.deleteRecursive(tempDir.toPath)
   }
 
-  def corpusSourcePath: Path = Paths.get(s"$corpusPath/$source/$corpusVersion")
+  // Sources of a `gen:` source, generated once per fork unless an earlier fork or run already has
+  private lazy val generatedSourcePath: Path =
+    SourceGenerators.generate(source.stripPrefix("gen:"), Paths.get(ConfigFactory.load.getString("generated.localdir")))
+
+  def corpusSourcePath: Path =
+    if (source.startsWith("gen:")) generatedSourcePath
+    else Paths.get(s"$corpusPath/$source/$corpusVersion")
 
   @Setup(Level.Trial) def initDepsClasspath(): Unit = {
     val classPath = BenchmarkUtils.initDeps(corpusSourcePath)
@@ -90,6 +116,16 @@ class ScalacBenchmark extends BenchmarkDriver {
       }
       depsClasspath = res.toString
     }
+    // Here rather than in a separate `@Setup`, as it needs `depsClasspath`.
+    if (classpathImage)
+      initClasspathImage(Paths.get(ConfigFactory.load.getString("classpathImage.localdir")))
+  }
+
+  // The lines compiled by an op, for `SourceSizeProfiler`, or 0 to report nothing per line
+  protected def linesPerOp: Long = BenchmarkUtils.countLines(sourceFiles)
+
+  @Setup(Level.Trial) def initSourceSize(): Unit = {
+    SourceSizeProfiler.setLines(linesPerOp)
   }
 
   private def findSourceDir: Path = {
@@ -106,7 +142,10 @@ object ScalacBenchmarkStandalone {
     val bench = new ScalacBenchmark
     bench.source = args(0)
     val iterations = args(1).toInt
+    bench.corpusVersion = if (args.length > 2) args(2) else "latest"
+    bench.scalaVersion = sys.props.getOrElse("scalaVersion", scala.util.Properties.versionNumberString)
     bench.initTemp()
+    bench.initDepsClasspath()
     var i = 0
     while (i < iterations) {
       bench.compileImpl()
@@ -122,6 +161,16 @@ object ScalacBenchmarkStandalone {
 // TODO -Xbatch reduces fork-to-fork variance, but incurs 5s -> 30s slowdown
 @Fork(value = 16, jvmArgs = Array("-XX:CICompilerCount=2", "-Xms2G", "-Xmx2G", "-Xss2M"))
 class ColdScalacBenchmark extends ScalacBenchmark {
+  // Set by ScalacBenchmarkRunner, which launches the forks for `true` with an AppCDS archive
+  @Param(value = Array("false"))
+  var cds: Boolean = false
+
+  @Setup(Level.Trial) def checkCds(): Unit = {
+    val hasArchive = java.lang.management.ManagementFactory.getRuntimeMXBean.getInputArguments.asScala.exists(_.startsWith("-XX:SharedArchiveFile="))
+    if (cds != hasArchive)
+      throw new IllegalStateException(s"cds=$cds, but the fork was launched ${if (hasArchive) "with" else "without"} a CDS archive. Use ScalacBenchmarkRunner for -pcds=true.")
+  }
+
   @Benchmark
   def compile(): Unit = compileImpl()
 }
@@ -136,6 +185,18 @@ class WarmScalacBenchmark extends ScalacBenchmark {
   def compile(): Unit = compileImpl()
 }
 
+// One compilation per iteration from a fresh JVM, to follow the warmup of the JIT from the first compilation to
+// the steady state. Run with `-prof scala.tools.nsc.WarmupCurveProfiler` for the time to reach the steady state.
+@BenchmarkMode(Array(SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 60)
+@Fork(value = 5, jvmArgs = Array("-Xms2G", "-Xmx2G", "-Xss2M"))
+class WarmupCurveScalacBenchmark extends ScalacBenchmark {
+  @Benchmark
+  def compile(): Unit = compileImpl()
+}
+
 @BenchmarkMode(Array(org.openjdk.jmh.annotations.Mode.SampleTime))
 @OutputTimeUnit(TimeUnit.MILLISECONDS)
 @Warmup(iterations = 10, time = 10, timeUnit = TimeUnit.SECONDS)
@@ -145,3 +206,19 @@ class HotScalacBenchmark extends ScalacBenchmark {
   @Benchmark
   def compile(): Unit = compileImpl()
 }
+
+// Compiles the corpus concurrently on `-t N` threads with a pool of resident compilers, as a build server
+// compiling several modules at once would. Reports compilations per second across all threads, and the
+// distribution of the time of each compilation, to show how shared state limits scaling with N.
+@BenchmarkMode(Array(Throughput, SampleTime))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 10, timeUnit = TimeUnit.SECONDS)
+@Threads(1)
+@Fork(value = 3, jvmArgs = Array("-Xms4G", "-Xmx4G", "-Xss2M"))
+class ResidentPoolScalacBenchmark extends ScalacBenchmark {
+  override def isResident = true
+
+  @Benchmark
+  def compile(): Unit = compileImpl()
+}
@@ -0,0 +1,225 @@
+package scala.tools.nsc
+
+import java.nio.charset.StandardCharsets
+import java.nio.file._
+
+/** Generators of synthetic sources for a `gen:<generator>:<size>[:<size>...]` source, e.g.
+ *  `gen:implicits-hlist:32`, to see how compile time grows with the size of a problem. The output is a function of
+ *  the spec only, and is written once to a subdirectory of `generated.localdir` named after the spec.
+ */
+object SourceGenerators {
+  // Bump when a generator changes its output, to invalidate generated sources.
+  private val Format = "1"
+
+  private val generators: Map[String, List[Int] => List[(String, String)]] = Map(
+    "implicits-hlist" -> implicitsHList,
+    "implicits-cbf" -> implicitsCbf,
+    "patmat" -> patmat,
+    "codebase" -> codebase
+  )
+
+  def names: List[String] = generators.keys.toList.sorted
+
+  /** The directory of the sources generated for `spec`, e.g. `implicits-hlist:32`, under `cacheRoot`. */
+  def generate(spec: String, cacheRoot: Path): Path = {
+    val name :: sizes = spec.split(':').toList
+    val generator = generators.getOrElse(name, throw new IllegalArgumentException(s"Unknown generator $name in gen:$spec, expected one of ${names.mkString(", ")}"))
+    val args =
+      try sizes.map(_.toInt)
+      catch { case _: NumberFormatException => throw new IllegalArgumentException(s"Sizes must be integers in gen:$spec") }
+    val dir = cacheRoot.resolve(Format + "-" + spec.replace(':', '-'))
+    BenchmarkUtils.publishDirectory(dir, Files.exists(dir)) { tempDir =>
+      for ((file, content) <- generator(args)) {
+        val target = tempDir.resolve(file)
+        Files.createDirectories(target.getParent)
+        Files.write(target, content.getBytes(StandardCharsets.UTF_8))
+      }
+    }
+    dir
+  }
+
+  private def size(args: List[Int], i: Int, name: String, default: Int): Int = {
+    val n = args.lift(i).getOrElse(default)
+    if (n < 1) throw new IllegalArgumentException(s"$name must be positive, was $n")
+    n
+  }
+
+  /** `implicits-hlist:<depth>[:<breadth>]`: `breadth` inductive derivations of a `Show` instance and searches for
+   *  the last element of an HList of `depth + 1` elements, as in the `induction` corpus.
+   */
+  private def implicitsHList(args: List[Int]): List[(String, String)] = {
+    val depth = size(args, 0, "depth", 1)
+    val breadth = size(args, 1, "breadth", 1)
+    val sb = new java.lang.StringBuilder
+    sb.append(
+      """package generated.hlist
+        |
+        |sealed trait HList extends Product with Serializable
+        |final case class ::[+H, +T <: HList](head: H, tail: T) extends HList
+        |sealed trait HNil extends HList
+        |case object HNil extends HNil
+        |
+        |trait Show[A] { def show(a: A): String }
+        |object Show {
+        |  def apply[A](implicit s: Show[A]): Show[A] = s
+        |  implicit val showHNil: Show[HNil] = new Show[HNil] { def show(a: HNil) = "HNil" }
+        |  implicit def showHCons[H, T <: HList](implicit h: Show[H], t: Show[T]): Show[H :: T] =
+        |    new Show[H :: T] { def show(a: H :: T) = h.show(a.head) + " :: " + t.show(a.tail) }
+        |}
+        |
+        |trait Selector[L <: HList, U] { def apply(l: L): U }
+        |object Selector {
+        |  def apply[L <: HList, U](implicit s: Selector[L, U]): Selector[L, U] = s
+        |  implicit def inHead[H, T <: HList]: Selector[H :: T, H] =
+        |    new Selector[H :: T, H] { def apply(l: H :: T) = l.head }
+        |  implicit def inTail[H, T <: HList, U](implicit st: Selector[T, U]): Selector[H :: T, U] =
+        |    new Selector[H :: T, U] { def apply(l: H :: T) = st(l.tail) }
+        |}
+        |""".stripMargin)
+    def element(name: String): Unit =
+      sb.append(
+        s"""
+           |class $name
+           |object $name { implicit val show: Show[$name] = new Show[$name] { def show(a: $name) = "$name" } }
+           |""".stripMargin)
+    for (i <- 0 until depth) element(s"E$i")
+    for (j <- 0 until breadth) {
+      element(s"M$j")
+      val l = ((0 until depth).map(i => s"E$i") :+ s"M$j" :+ "HNil").mkString(" :: ")
+      sb.append(
+        s"""
+           |object Test$j {
+           |  type L = $l
+           |  val show = Show[L]
+           |  val select = Selector[L, M$j]
+           |}
+           |""".stripMargin)
+    }
+    List("generated/hlist/Test.scala" -> sb.toString)
+  }
+
+  /** `implicits-cbf:<depth>[:<breadth>]`: `breadth` maps over collections nested `depth` deep, each level needing
+   *  a `CanBuildFrom` (before 2.13) for its own collection type.
+   */
+  private def implicitsCbf(args: List[Int]): List[(String, String)] = {
+    val depth = size(args, 0, "depth", 1)
+    val breadth = size(args, 1, "breadth", 1)
+    val collections = Array("List", "Vector", "Set", "IndexedSeq", "Seq", "Iterable")
+    val sb = new java.lang.StringBuilder
+    sb.append("package generated.cbf\n")
+    for (j <- 0 until breadth) {
+      // Rotated per value, so that each value has a different nesting of collection types
+      val levels = (0 until depth).map(i => collections((i + j) % collections.length))
+      val tpe = levels.foldRight("Int")((c, t) => s"$c[$t]")
+      val value = levels.foldRight(j.toString)((c, v) => s"$c($v)")
+      val f = (1 to depth).foldRight(s"x${depth + 1} + $j")((i, body) => s"x$i.map(x${i + 1} => $body)")
+      sb.append(
+        s"""
+           |object Test$j {
+           |  val x1: $tpe = $value
+           |  val y = $f
+           |}
+           |""".stripMargin)
+    }
+    List("generated/cbf/Test.scala" -> sb.toString)
+  }
+
+  /** `patmat:<subclasses>[:<cases>[:<depth>]]`: a match of `cases` cases over a sealed type of `subclasses` case
+   *  objects, or over pairs of it nested `depth` deep, as in the `patmat-exhaust-huge` corpus. The last
+   *  `subclasses` cases match each object in the first element, so the match is exhaustive when `cases` is at
+   *  least `subclasses` (the default). The cases before them match distinct combinations of all elements, of which
+   *  there are `subclasses^depth`. `cases` may add at most `subclasses^depth - subclasses` of them, so that every
+   *  case stays reachable: none with `depth` 1.
+   */
+  private def patmat(args: List[Int]): List[(String, String)] = {
+    val subclasses = size(args, 0, "subclasses", 1)
+    val cases = size(args, 1, "cases", subclasses)
+    val depth = size(args, 2, "depth", 1)
+    val maxCombinations = BigInt(subclasses).pow(depth) - subclasses
+    if (cases - subclasses > maxCombinations)
+      throw new IllegalArgumentException(s"cases must be at most ${maxCombinations + subclasses} with $subclasses subclasses and depth $depth, or some are unreachable, was $cases")
+    def nest(elems: Seq[String]): String = elems.reduceRight((e, rest) => s"($e, $rest)")
+    val sb = new java.lang.StringBuilder
+    sb.append("package generated.patmat\n\nsealed trait C\n")
+    for (i <- 0 until subclasses) sb.append(s"case object C$i extends C\n")
+    sb.append(s"\nobject Test {\n  def f(x: ${nest(Seq.fill(depth)("C"))}): Int = x match {\n")
+    val combinations = for (j <- 0 until math.max(0, cases - subclasses)) yield {
+      // The digits of `j` in base `subclasses`, one per element
+      var rest = j
+      for (_ <- 0 until depth) yield {
+        val i = rest % subclasses
+        rest /= subclasses
+        s"C$i"
+      }
+    }
+    val covering = for (i <- 0 until math.min(cases, subclasses)) yield s"C$i" +: Seq.fill(depth - 1)("_")
+    for ((elems, k) <- (combinations ++ covering).zipWithIndex)
+      sb.append(s"    case ${nest(elems)} => $k\n")
+    sb.append("  }\n}\n")
+    List("generated/patmat/Test.scala" -> sb.toString)
+  }
+
+  /** `codebase:<packages>[:<classes>[:<depth>[:<refs>]]]`: a project of `packages` packages of `classes` classes,
+   *  one per file, to see how compile time grows with the size of a project. Classes extend each other in chains of
+   *  `depth` classes, and each one has `refs` methods using a class of any package, chosen by a seeded `Random`.
+   *  Methods are named after their class, so that those of a subclass don't override those of its parent.
+   *  A class is 24 lines, plus 3 per ref.
+   */
+  private def codebase(args: List[Int]): List[(String, String)] = {
+    val packages = size(args, 0, "packages", 1)
+    val classes = size(args, 1, "classes", 10)
+    val depth = size(args, 2, "depth", 1)
+    val refs = size(args, 3, "refs", 1)
+    val random = new scala.util.Random(packages * 31 + classes)
+    val node =
+      """package generated.codebase
+        |
+        |abstract class Node(val id: Int) {
+        |  def weight: Int = id
+        |  def name: String
+        |}
+        |""".stripMargin
+    val files = for (i <- 0 until packages; j <- 0 until classes) yield {
+      val parent = if (j % depth == 0) "Node" else s"C${j - 1}"
+      val sb = new java.lang.StringBuilder
+      sb.append(
+        s"""package generated.codebase.p$i
+           |
+           |import generated.codebase.Node
+           |
+           |class C$j(id0: Int) extends $parent(id0) {
+           |  private[this] var visits = 0
+           |  override def weight: Int = super.weight + $j
+           |  override def name: String = s"p$i.C$j#$$id"
+           |
+           |  def step$j(xs: List[Int]): List[Int] = {
+           |    visits += 1
+           |    xs.map(_ + id).filter(_ % ${j + 2} != 0)
+           |  }
+           |
+           |  def describe$j(n: Int): String = n match {
+           |    case 0 => name
+           |    case k if k < 0 => "-" + describe$j(-k)
+           |    case k => s"$$name/$$k"
+           |  }
+           |""".stripMargin)
+      for (k <- 0 until refs) {
+        val target = s"generated.codebase.p${random.nextInt(packages)}.C${random.nextInt(classes)}"
+        sb.append(
+          s"""
+             |  def ref${j}_$k(other: $target): Int = other.weight + step$j(List(other.id, $k)).sum
+             |  def use${j}_$k: Int = ref${j}_$k(new $target(id + $k))
+             |""".stripMargin)
+      }
+      sb.append(
+        s"""}
+           |
+           |object C$j {
+           |  def apply(id: Int): C$j = new C$j(id)
+           |}
+           |""".stripMargin)
+      s"generated/codebase/p$i/C$j.scala" -> sb.toString
+    }
+    ("generated/codebase/Node.scala" -> node) :: files.toList
+  }
+}
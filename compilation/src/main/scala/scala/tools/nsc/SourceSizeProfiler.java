@@ -0,0 +1,50 @@
+package scala.tools.nsc;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.Defaults;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Reports the size of the compiled sources, `source.kloc`, and the score per thousand lines, e.g. `score.per.kloc` in
+// ms/kLOC for a score in ms/op, to compare compile speed across sources of different sizes. Scores of the throughput
+// mode, in ops/ms, have no meaning per line and are skipped. The lines are counted by `ScalacBenchmark` once per fork.
+// Memory and allocation per thousand lines are derived by `ScalingReport` from `source.kloc` and the results of
+// `MemoryProfiler` and `AllocationProfiler`, rather than measured again here.
+public class SourceSizeProfiler implements InternalProfiler {
+    private static volatile long lines;
+
+    public static void setLines(long count) {
+        lines = count;
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        List<Result> results = new ArrayList<>();
+        if (lines == 0)
+            return results; // an `@` source, or a benchmark that doesn't count its lines
+        double kloc = lines / 1000d;
+        results.add(new ScalarResult(Defaults.PREFIX + "source.kloc", kloc, "kLOC", AggregationPolicy.AVG));
+        Result<?> primary = result.getPrimaryResult();
+        String unit = primary.getScoreUnit();
+        if (unit.endsWith("/op"))
+            results.add(new ScalarResult(Defaults.PREFIX + "score.per.kloc", primary.getScore() / kloc, unit.replace("/op", "/kLOC"), AggregationPolicy.AVG));
+        return results;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Size of the compiled sources, and score per thousand lines";
+    }
+}
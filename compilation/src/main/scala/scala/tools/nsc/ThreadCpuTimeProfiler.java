@@ -4,16 +4,16 @@ import org.openjdk.jmh.infra.BenchmarkParams;
 import org.openjdk.jmh.infra.IterationParams;
 import org.openjdk.jmh.profile.InternalProfiler;
 import org.openjdk.jmh.results.*;
-import org.openjdk.jmh.util.ScoreFormatter;
 
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
-// Assumptions: Threads are not created or destroyed in the steady state
+// Only counts the time of threads alive at both the start and the end of an iteration, so the number of threads
+// created and destroyed in between is reported too. It should be zero in the steady state.
 public class ThreadCpuTimeProfiler implements InternalProfiler {
 
     private ExtendedThreadMxBean threadMx = ExtendedThreadMxBean.proxy;
-    private HashMap<Long, TheadSnapshot> before;
+    private ThreadSnapshot before;
 
     public ThreadCpuTimeProfiler() {
         if (threadMx.isThreadCpuTimeSupported()) {
@@ -26,41 +26,57 @@ public class ThreadCpuTimeProfiler implements InternalProfiler {
         this.before = snapshot();
     }
 
-    private HashMap<Long, TheadSnapshot> snapshot() {
-        HashMap<Long, TheadSnapshot> snaps = new HashMap<>();
-        for (long id: threadMx.getAllThreadIds() ) {
-            if (id != Thread.currentThread().getId()) {
-                snaps.put(id, new TheadSnapshot(threadMx.getThreadCpuTime(id), threadMx.getThreadUserTime(id)));
-            }
+    // One bulk call per figure, rather than one call per thread, to keep the iteration boundaries short.
+    private ThreadSnapshot snapshot() {
+        long[] ids = threadMx.getAllThreadIds();
+        Arrays.sort(ids);
+        try {
+            return new ThreadSnapshot(ids, threadMx.getThreadCpuTime(ids), threadMx.getThreadUserTime(ids));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
-        return snaps;
     }
 
     @Override
     public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
-        List<NormTimeResult> results = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
 
-        HashMap<Long, TheadSnapshot> after = snapshot();
-        HashSet<Long> commonThreadIds = new HashSet<>(before.keySet());
-        commonThreadIds.retainAll(after.keySet());
+        ThreadSnapshot after = snapshot();
+        long self = Thread.currentThread().getId();
         long deltaCpuTime = 0;
         long deltaUserTime = 0;
-        for (long id: commonThreadIds) {
-            TheadSnapshot beforeThreadSnapshot = before.get(id);
-            TheadSnapshot afterThreadSnapshot = after.get(id);
-            deltaCpuTime += afterThreadSnapshot.threadCpuTime - beforeThreadSnapshot.threadCpuTime;
-            deltaUserTime += afterThreadSnapshot.threadUserCpuTime - beforeThreadSnapshot.threadUserCpuTime;
+        int created = 0;
+        int destroyed = 0;
+        // Merge the id arrays, which are both sorted.
+        int i = 0, j = 0;
+        while (i < before.ids.length || j < after.ids.length) {
+            if (j == after.ids.length || (i < before.ids.length && before.ids[i] < after.ids[j])) {
+                destroyed++;
+                i++;
+            } else if (i == before.ids.length || after.ids[j] < before.ids[i]) {
+                created++;
+                j++;
+            } else {
+                // -1 if the thread died between `getAllThreadIds` and reading its times
+                if (before.ids[i] != self && before.cpuTimes[i] != -1 && after.cpuTimes[j] != -1) {
+                    deltaCpuTime += after.cpuTimes[j] - before.cpuTimes[i];
+                    deltaUserTime += after.userTimes[j] - before.userTimes[i];
+                }
+                i++;
+                j++;
+            }
         }
         long allOps = result.getMetadata().getAllOps();
         if (deltaCpuTime != 0) {
-            NormTimeResult normTimeResult = new NormTimeResult("threads.cpu.time.norm", TimeUnit.NANOSECONDS.toMillis(deltaCpuTime), allOps);
+            NormResult normTimeResult = new NormResult("threads.cpu.time.norm", TimeUnit.NANOSECONDS.toMillis(deltaCpuTime), allOps, "ms/op");
             results.add(normTimeResult);
         }
         if (deltaUserTime != 0) {
-            NormTimeResult normTimeResult = new NormTimeResult("threads.user.time.norm", TimeUnit.NANOSECONDS.toMillis(deltaUserTime), allOps);
+            NormResult normTimeResult = new NormResult("threads.user.time.norm", TimeUnit.NANOSECONDS.toMillis(deltaUserTime), allOps, "ms/op");
             results.add(normTimeResult);
         }
-        // TODO warn about threads created or destroyed during the iteration.
+        results.add(new ScalarResult(Defaults.PREFIX + "threads.created", created, "threads", AggregationPolicy.AVG));
+        results.add(new ScalarResult(Defaults.PREFIX + "threads.destroyed", destroyed, "threads", AggregationPolicy.AVG));
         before = after;
         return results;
     }
@@ -70,84 +86,15 @@ public class ThreadCpuTimeProfiler implements InternalProfiler {
         return "CPU time profiler based on ThreadMXBean";
     }
 
-    static class TheadSnapshot {
-        private long threadCpuTime;
-        private long threadUserCpuTime;
-        TheadSnapshot(long threadCpuTime, long threadUserCpuTime) {
-            this.threadCpuTime = threadCpuTime;
-            this.threadUserCpuTime = threadUserCpuTime;
-        }
-    }
-
-    // Below are some ugly contortions to avoid the average of averages error you'd get if we just used a
-    // `ScalarResult(timeMs / allOps)`. There is probably a much nicer way to do this in JMH.
-    static class NormTimeResult extends Result<NormTimeResult> {
-        private static final long serialVersionUID = -1262685915873231436L;
-
-        private String prefix;
-        private final long scalar;
-        private final long ops;
-
-        public NormTimeResult(String prefix, long cycles, long instructions) {
-            super(ResultRole.SECONDARY, Defaults.PREFIX + prefix, of(Double.NaN), "---", AggregationPolicy.AVG);
-            this.prefix = prefix;
-            this.scalar = cycles;
-            this.ops = instructions;
-        }
-
-        @Override
-        protected Aggregator<NormTimeResult> getThreadAggregator() {
-            return new Aggregator<NormTimeResult>() {
-                @Override
-                public NormTimeResult aggregate(Collection<NormTimeResult> results) {
-                    if (results.size() != 1) {
-                        throw new UnsupportedOperationException();
-                    } else {
-                        return results.iterator().next();
-                    }
-                }
-            };
-        }
-
-        @Override
-        protected Aggregator<NormTimeResult> getIterationAggregator() {
-            NormTimeResultAggregator normTimeResultAggregator = new NormTimeResultAggregator(Defaults.PREFIX + prefix);
-            return (Aggregator<NormTimeResult>) (Object) normTimeResultAggregator;
-        }
-
-        @Override
-        protected Collection<? extends Result> getDerivativeResults() {
-            return Collections.emptyList();
-        }
-
-        @Override
-        public String toString() {
-            return String.format("%s %s", ScoreFormatter.format(1.0 * scalar / ops), prefix);
-        }
-
-        @Override
-        public String extendedInfo() {
-            return "";
-        }
-    }
-
-    static class NormTimeResultAggregator implements Aggregator<Result> {
-
-        private String prefix;
-
-        NormTimeResultAggregator(String prefix) {
-            this.prefix = prefix;
-        }
-
-        @Override
-        public Result aggregate(Collection<Result> results) {
-            long scalar = 0;
-            long ops = 0;
-            for (Result r : results) {
-                scalar += ((NormTimeResult) r).scalar;
-                ops += ((NormTimeResult) r).ops;
-            }
-            return new ScalarResult(prefix, 1.0 * scalar / ops, "ms/op", AggregationPolicy.AVG);
+    // Times of the thread `ids[i]` are at index `i` of the other arrays.
+    static class ThreadSnapshot {
+        private final long[] ids;
+        private final long[] cpuTimes;
+        private final long[] userTimes;
+        ThreadSnapshot(long[] ids, long[] cpuTimes, long[] userTimes) {
+            this.ids = ids;
+            this.cpuTimes = cpuTimes;
+            this.userTimes = userTimes;
         }
     }
 }
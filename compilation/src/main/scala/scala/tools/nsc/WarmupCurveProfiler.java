@@ -0,0 +1,151 @@
+package scala.tools.nsc;
+
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.profile.ProfilerException;
+import org.openjdk.jmh.results.*;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+// Records the latency of each iteration of a fork, from the first (warmup included), together with the time spent
+// in the JIT compiler and the size of the code cache after it. The series is written to a CSV file in
+// `benchmark.outdir`, and summarized after the last iteration as the number of iterations and the total time it
+// took to get within 5% of the steady state.
+//
+// The steady state is the score of a hot benchmark in ms/op, e.g. of `HotScalacBenchmark` for the same source,
+// passed as `-prof scala.tools.nsc.WarmupCurveProfiler:hotScore=<ms>`. Without it, the steady state is estimated as the
+// median latency of the last quarter of the iterations, which is still warming up in a short run, and the summary
+// is reported as `warmup.*.estimated` so it isn't mixed up with one against a hot score.
+//
+// Meant for `WarmupCurveScalacBenchmark`, which compiles once per iteration.
+public class WarmupCurveProfiler implements InternalProfiler {
+    private static final double NANOS_PER_MILLI = 1000_000d;
+    private static final double STEADY_STATE_TOLERANCE = 0.05;
+
+    private final CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+    private final List<double[]> series = new ArrayList<>(); // latency ms, jit ms, code cache MB
+    private final double hotScore; // NaN to estimate it
+    private int measurementIterations;
+    private long startNanos;
+    private long startJitMillis;
+
+    public WarmupCurveProfiler(String initLine) throws ProfilerException {
+        double hotScore = Double.NaN;
+        for (String option : initLine.split(";")) {
+            if (option.isEmpty())
+                continue;
+            String[] keyValue = option.split("=", 2);
+            if (keyValue.length != 2 || !keyValue[0].equals("hotScore"))
+                throw new ProfilerException("Unknown option " + option + ", expected hotScore=<ms/op>");
+            try {
+                hotScore = Double.parseDouble(keyValue[1]);
+            } catch (NumberFormatException e) {
+                throw new ProfilerException("hotScore should be a number of ms/op, not " + keyValue[1]);
+            }
+            if (!(hotScore > 0))
+                throw new ProfilerException("hotScore should be positive, not " + keyValue[1]);
+        }
+        this.hotScore = hotScore;
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        startJitMillis = jitMillis();
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        double latency = elapsedNanos / NANOS_PER_MILLI / Math.max(1, result.getMetadata().getAllOps());
+        double jitTime = jitMillis() - startJitMillis;
+        double codeCache = codeCacheBytes() / (1024d * 1024d);
+        series.add(new double[]{latency, jitTime, codeCache});
+
+        List<Result> results = new ArrayList<>();
+        results.add(new ScalarResult(Defaults.PREFIX + "jit.time", jitTime, "ms", AggregationPolicy.AVG));
+        results.add(new ScalarResult(Defaults.PREFIX + "codecache.used", codeCache, "MB", AggregationPolicy.MAX));
+        if (iterationParams.getType() == IterationType.MEASUREMENT && ++measurementIterations == iterationParams.getCount()) {
+            results.addAll(summarize());
+            writeSeries(benchmarkParams);
+        }
+        return results;
+    }
+
+    private List<Result> summarize() {
+        boolean estimated = Double.isNaN(hotScore);
+        double steady = hotScore;
+        if (estimated) {
+            List<Double> tail = new ArrayList<>();
+            for (double[] point : series.subList(series.size() - Math.max(1, series.size() / 4), series.size()))
+                tail.add(point[0]);
+            Collections.sort(tail);
+            steady = tail.get(tail.size() / 2);
+        }
+
+        // The first iteration after which all latencies are within the tolerance of the steady state
+        int warm = series.size();
+        while (warm > 0 && series.get(warm - 1)[0] <= steady * (1 + STEADY_STATE_TOLERANCE))
+            warm--;
+        double timeToWarm = 0;
+        for (int i = 0; i < warm; i++)
+            timeToWarm += series.get(i)[0];
+
+        // Only in the last iteration, and JMH aggregates the others as 0, so MAX: that of the slowest fork to warm up
+        String suffix = estimated ? ".estimated" : "";
+        List<Result> results = new ArrayList<>();
+        results.add(new ScalarResult(Defaults.PREFIX + "warmup.steady" + suffix, steady, "ms/op", AggregationPolicy.MAX));
+        results.add(new ScalarResult(Defaults.PREFIX + "warmup.iterations" + suffix, warm, "iterations", AggregationPolicy.MAX));
+        results.add(new ScalarResult(Defaults.PREFIX + "warmup.time" + suffix, timeToWarm, "ms", AggregationPolicy.MAX));
+        return results;
+    }
+
+    private void writeSeries(BenchmarkParams benchmarkParams) {
+        String name = benchmarkParams.getBenchmark().replaceAll(".*\\.([^.]+\\.[^.]+)$", "$1") + "-" + ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        Path file = Paths.get(ConfigFactory.load().getString("benchmark.outdir"), "warmup-curve-" + name + ".csv");
+        List<String> lines = new ArrayList<>();
+        lines.add("iteration,latency_ms,jit_ms,codecache_mb");
+        for (int i = 0; i < series.size(); i++) {
+            double[] point = series.get(i);
+            lines.add(String.format("%d,%.3f,%.0f,%.2f", i + 1, point[0], point[1], point[2]));
+        }
+        try {
+            Files.write(file, lines);
+            System.out.println("Warmup curve written to " + file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long jitMillis() {
+        return jit != null && jit.isCompilationTimeMonitoringSupported() ? jit.getTotalCompilationTime() : 0;
+    }
+
+    private static long codeCacheBytes() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // "Code Cache" on JDK 8, "CodeHeap '...'" with the segmented code cache of later JDKs
+            if (pool.getName().startsWith("Code"))
+                used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Latency of each iteration, JIT time and code cache size, and the time to reach a steady state";
+    }
+}
@@ -1,15 +1,19 @@
 package scala.tools.benchmark
 
-import java.io.File
-import java.nio.file._
-
-import com.typesafe.config.ConfigFactory
+import java.io.{File, OutputStream}
+import java.nio.file.{Path, Paths}
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
 
+import scala.reflect.io.{AbstractFile, VirtualDirectory, VirtualFile}
 import scala.tools.nsc._
 
 trait BenchmarkDriver extends BaseBenchmarkDriver {
-  private var residentDriver: ThreadLocal[MainClass] = new ThreadLocal[MainClass]()
-  private var files: List[String] = _
+  // Idle resident compilers. A thread takes one for each compilation and returns it afterwards, so
+  // concurrent benchmark threads (`-t N`) grow the pool to N compilers, as in a build server.
+  private val residentPool = new ConcurrentLinkedQueue[MainClass]()
+  private val residentCount = new AtomicInteger()
+  private var classpathImagePath: String = _
   private def findScalaJars = {
     System.getProperty("scala.compiler.class.path") match {
       case null =>
@@ -19,51 +23,138 @@ trait BenchmarkDriver extends BaseBenchmarkDriver {
   }
 
   // MainClass is copy-pasted from compiler for source compatibility with 2.10.x - 2.13.x
-  private class MainClass extends Driver with EvalLoop {
+  private class MainClass(outDir: File, previousOutput: Option[File] = None) extends Driver with EvalLoop {
     var compiler: Global = _
+    var files: List[String] = _
     override def newCompiler(): Global = {
       compiler = Global(settings, reporter)
       compiler
     }
 
     override protected def processSettingsHook(): Boolean = {
-      if (!source.startsWith("@")) {
-        // Don't set the classpath manually if it's to be loaded by the `@` processor
-        if (source == "scala")
-          settings.sourcepath.value = Paths.get(ConfigFactory.load.getString("sourceAssembly.localdir")).resolve("library").toAbsolutePath.normalize.toString
-        else settings.classpath.value = findScalaJars
-        if (depsClasspath != null && depsClasspath.nonEmpty) {
-          settings.processArgumentString(s"-cp $depsClasspath")
-          if (source != "scala")
-            settings.classpath.value = findScalaJars + File.pathSeparator + settings.classpath.value
-        }
+      configureClasspath(settings)
+      if (classpathImagePath != null)
+        settings.classpath.value = classpathImagePath
+      for (dir <- previousOutput)
+        settings.classpath.value = dir.getAbsolutePath + File.pathSeparator + settings.classpath.value
 
+      outputMode match {
+        case "disk" => settings.outdir.value = outDir.getAbsolutePath
+        case "memory" => settings.outputDirs.setSingleOutput(new VirtualDirectory("(memory)", None))
+        case "count" => settings.outputDirs.setSingleOutput(new CountingDirectory("(count)", None))
       }
-
-      settings.outdir.value = tempDir.getAbsolutePath
       settings.nowarn.value = true
       true
     }
+
+    // As in `Driver`, with the instrumented run
+    override protected def doCompile(compiler: Global): Unit = {
+      if (command.files.isEmpty) {
+        reporter.echo(command.usageMsg)
+        reporter.echo(compiler.pluginOptionsHelp)
+      } else {
+        newRun(compiler) compile command.files
+        reporter.finish()
+      }
+    }
+  }
+
+  // Discards the classfiles after counting them in `OutputSizeProfiler`
+  private class CountingDirectory(name: String, parent: Option[VirtualDirectory]) extends VirtualDirectory(name, parent) {
+    override def subdirectoryNamed(name: String): AbstractFile = new CountingDirectory(name, Some(this))
+    override def fileNamed(name: String): AbstractFile = new VirtualFile(name, path + "/" + name) {
+      override def output: OutputStream = OutputSizeProfiler.countingStream(name)
+    }
+  }
+
+  private def configureClasspath(settings: Settings): Unit = {
+    if (!source.startsWith("@")) {
+      // Don't set the classpath manually if it's to be loaded by the `@` processor
+      if (source == "scala")
+        settings.sourcepath.value = sourceAssemblyDir.resolve("library").toAbsolutePath.normalize.toString
+      else settings.classpath.value = findScalaJars
+      if (depsClasspath != null && depsClasspath.nonEmpty) {
+        settings.processArgumentString(s"-cp $depsClasspath")
+        if (source != "scala")
+          settings.classpath.value = findScalaJars + File.pathSeparator + settings.classpath.value
+      }
+
+    }
+  }
+
+  def initClasspathImage(cacheRoot: Path): Unit = {
+    val settings = new Settings(msg => throw new IllegalArgumentException(msg))
+    new CompilerCommand(allArgs, settings) // reads the classpath of an `@` source
+    configureClasspath(settings)
+    val entries = settings.classpath.value.split(File.pathSeparator).toList.filter(_.nonEmpty).map(Paths.get(_))
+    classpathImagePath = BenchmarkUtils.classpathImage(entries, cacheRoot).toString
+  }
+
+  // Reports phase transitions to `PhaseTimings`, which are surfaced by `PhaseTimingProfiler` and `MemoryProfiler`
+  private def newRun(compiler: Global): compiler.Run = new compiler.Run() {
+    private var recorder: PhaseTimings.Recorder = _
+
+    override def compileUnits(units: List[compiler.CompilationUnit], fromPhase: Phase): Unit = {
+      recorder = PhaseTimings.start()
+      recorder.phaseStarted(fromPhase.name)
+      try super.compileUnits(units, fromPhase)
+      finally recorder.runCompleted()
+    }
+
+    override def advancePhase(): Unit = {
+      if (recorder != null) recorder.phaseCompleted(compiler.globalPhase.prev.name)
+      super.advancePhase()
+      if (recorder != null) recorder.phaseStarted(compiler.globalPhase.name)
+    }
   }
 
   def compileImpl(): Unit = {
     if (isResident) {
-      if (residentDriver.get() == null) {
-        val driver = new MainClass
-        residentDriver.set(driver)
+      var driver = residentPool.poll()
+      if (driver == null) {
+        // Compilers writing to the same directory at once would clobber each other's classfiles
+        val outDir = new File(tempDir, "resident-" + residentCount.incrementAndGet())
+        outDir.mkdir()
+        driver = new MainClass(outDir)
         driver.process(allArgs.toArray)
         val command  = new CompilerCommand(allArgs, driver.compiler.settings)
-        files = command.files
+        driver.files = command.files
+      }
+      try {
+        val compiler = driver.compiler
+        compiler.reporter.reset()
+        newRun(compiler) compile driver.files
+        assert(!driver.reporter.hasErrors)
+      } finally {
+        residentPool.offer(driver)
       }
-      val compiler = residentDriver.get().compiler
-      compiler.reporter.reset()
-      new compiler.Run() compile files
-      assert(!residentDriver.get().reporter.hasErrors)
     } else {
-      val driver = new MainClass
+      val driver = new MainClass(tempDir)
       driver.process(allArgs.toArray)
       assert(!driver.reporter.hasErrors)
     }
   }
 
+  // Compiles `files` again after `compileImpl()`: with the same resident compiler, or else with a new one
+  // against the classes in `tempDir`, as an incremental compiler would.
+  def recompileImpl(files: List[String]): Unit = {
+    if (isResident) {
+      val driver = residentPool.poll()
+      assert(driver != null, "recompileImpl() needs a resident compiler from compileImpl()")
+      try {
+        val compiler = driver.compiler
+        compiler.reporter.reset()
+        newRun(compiler) compile files
+        assert(!driver.reporter.hasErrors)
+      } finally {
+        residentPool.offer(driver)
+      }
+    } else {
+      if (outputMode != "disk") throw new IllegalArgumentException(s"outputMode=$outputMode: recompiling with a new compiler needs the classfiles on disk")
+      val driver = new MainClass(tempDir, previousOutput = Some(tempDir))
+      driver.process((compilerArgs ++ extras ++ files).toArray)
+      assert(!driver.reporter.hasErrors)
+    }
+  }
+
 }
@@ -0,0 +1,49 @@
+package scala.tools.nsc
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+
+import org.junit.Assert._
+import org.junit.{After, Before, Test}
+
+class BenchmarkUtilsTest {
+  private var root: Path = _
+
+  @Before def createRoot(): Unit = root = Files.createTempDirectory("publish")
+
+  @After def deleteRoot(): Unit = BenchmarkUtils.deleteRecursive(root)
+
+  private def read(f: Path) = new String(Files.readAllBytes(f), StandardCharsets.UTF_8)
+
+  @Test def publishesPreparedDirectory(): Unit = {
+    val dir = root.resolve("a")
+    BenchmarkUtils.publishDirectory(dir, Files.exists(dir.resolve("done"))) { temp =>
+      Files.write(temp.resolve("done"), "mine".getBytes(StandardCharsets.UTF_8))
+    }
+    assertEquals("mine", read(dir.resolve("done")))
+    assertEquals(List("a"), Files.list(root).toArray.toList.map(_.asInstanceOf[Path].getFileName.toString))
+  }
+
+  @Test def keepsDirectoryOfConcurrentFork(): Unit = {
+    val dir = root.resolve("a")
+    BenchmarkUtils.publishDirectory(dir, Files.exists(dir.resolve("done"))) { temp =>
+      Files.write(temp.resolve("done"), "mine".getBytes(StandardCharsets.UTF_8))
+      // Another fork publishes its directory while this one prepares
+      Files.createDirectory(dir)
+      Files.write(dir.resolve("done"), "theirs".getBytes(StandardCharsets.UTF_8))
+    }
+    assertEquals("theirs", read(dir.resolve("done")))
+    assertEquals(1, Files.list(root).count())
+  }
+
+  @Test(expected = classOf[java.nio.file.FileSystemException])
+  def failsWhenNothingWasPublished(): Unit = {
+    val dir = root.resolve("a")
+    BenchmarkUtils.publishDirectory(dir, Files.exists(dir.resolve("done"))) { temp =>
+      Files.write(temp.resolve("done"), "mine".getBytes(StandardCharsets.UTF_8))
+      // In the way, but not a published directory
+      Files.createDirectory(dir)
+      Files.write(dir.resolve("partial"), Array[Byte]())
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package scala.bench;
+
+import com.typesafe.config.ConfigFactory;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+// Memoizes `GitWalker.isAncestor` by commit. Whether one commit is an ancestor of another never changes,
+// so the answers of Git are kept in `ancestry.properties` next to the commit index and reused by later runs.
+// Answers of the commit index are not kept: they are as cheap to look up again, and only as valid as the
+// index, which is rebuilt when a branch is rewritten.
+class AncestryCache {
+    private static final String FILE_NAME = "ancestry.properties";
+    // Earlier versions also kept the answers of the commit index
+    private static final String VERSION_KEY = "version";
+    private static final String VERSION = "2";
+
+    private final Repository repo;
+    private final CommitIndex index;
+    private final Path file;
+    private final Properties answers;
+    private boolean dirty = false;
+
+    private AncestryCache(Repository repo, CommitIndex index, Path file, Properties answers) {
+        this.repo = repo;
+        this.index = index;
+        this.file = file;
+        this.answers = answers;
+    }
+
+    static AncestryCache open(Repository repo) {
+        Path dir = Paths.get(ConfigFactory.load().getString("git.index.dir"));
+        Path file = dir.resolve(FILE_NAME);
+        Properties answers = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                answers.load(reader);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (!VERSION.equals(answers.getProperty(VERSION_KEY)))
+                answers.clear();
+        }
+        answers.setProperty(VERSION_KEY, VERSION);
+        // Brought up to date, so that it doesn't answer for a branch rewritten since the last update
+        CommitIndex index;
+        try {
+            index = CommitIndex.open(dir).update(repo);
+        } catch (IllegalArgumentException e) {
+            index = null; // not a clone of scala/scala with the indexed branches, ask Git
+        }
+        return new AncestryCache(repo, index, file, answers);
+    }
+
+    boolean isAncestor(String rev, String scalaRef) throws IOException {
+        // Refs are resolved every time, as branches move; only the answer for the resolved commits is memoized.
+        ObjectId revId = GitWalker.resolve(rev, repo);
+        ObjectId scalaRefId = GitWalker.resolve(scalaRef, repo);
+        Boolean indexed = index == null ? null : index.isFirstParentAncestor(revId, scalaRefId);
+        if (indexed != null)
+            return indexed;
+        String key = revId.name() + "." + scalaRefId.name();
+        String answer = answers.getProperty(key);
+        if (answer == null) {
+            answer = String.valueOf(GitWalker.isMergedInto(revId, scalaRefId, repo));
+            answers.setProperty(key, answer);
+            dirty = true;
+        }
+        return Boolean.parseBoolean(answer);
+    }
+
+    void save() {
+        if (!dirty)
+            return;
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                answers.store(writer, "<ancestor>.<descendant> = whether the first commit is an ancestor of the second");
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
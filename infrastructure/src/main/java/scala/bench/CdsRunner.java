@@ -0,0 +1,192 @@
+package scala.bench;
+
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Defaults;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs a cold benchmark with and without an AppCDS archive of the classes loaded by a training compilation
+// (`ScalacBenchmarkStandalone`), reported as the `cds` parameter. Enabled with `-pcds=false,true`.
+//
+// The archive is created in `benchmark.cds.dir` and reused by later runs with the same JVM, classpath and source.
+// AppCDS only archives classes from jars, so the directories on the classpath, like the `classes` of the sbt projects,
+// are packed into jars in `benchmark.cds.dir`. The training run and the forks with the archive use that classpath, as
+// AppCDS requires: JMH launches forks with the `java.class.path` of this JVM, which is switched during their run.
+public class CdsRunner {
+    private final Options options;
+    private final Path cdsDir;
+
+    public CdsRunner(Options options) {
+        this.options = options;
+        this.cdsDir = Paths.get(ConfigFactory.load().getString("benchmark.cds.dir"));
+    }
+
+    public static boolean isEnabled(Options options) {
+        return options.getParameter("cds").orElse(Collections.emptyList()).contains("true");
+    }
+
+    public Collection<RunResult> run() throws RunnerException, IOException {
+        Path resultDir = Files.createTempDirectory("cds-results");
+        List<RunResult> results = new ArrayList<>();
+        for (String cds : options.getParameter("cds").get()) {
+            ChainedOptionsBuilder builder = new OptionsBuilder().parent(options).param("cds", cds);
+            String classpath = System.getProperty("java.class.path");
+            String forkClasspath = classpath;
+            if (Boolean.parseBoolean(cds)) {
+                forkClasspath = jarClasspath(classpath);
+                List<String> jvmArgs = new ArrayList<>(options.getJvmArgsAppend().orElse(Collections.emptyList()));
+                jvmArgs.add("-XX:SharedArchiveFile=" + archive(forkClasspath));
+                builder.jvmArgsAppend(jvmArgs.toArray(new String[0]));
+            }
+            if (options.getResultFormat().hasValue()) {
+                // Written once for both values of `cds` below, rather than overwritten by each run
+                builder.result(resultDir.resolve("cds-" + cds).toString());
+            }
+            Options cdsOptions = builder.build();
+            System.setProperty("java.class.path", forkClasspath);
+            try {
+                results.addAll(ParallelForkRunner.isEnabled() ? new ParallelForkRunner(cdsOptions).run() : new Runner(cdsOptions).run());
+            } finally {
+                System.setProperty("java.class.path", classpath);
+            }
+        }
+        if (options.getResultFormat().hasValue()) {
+            ResultFormatType format = options.getResultFormat().get();
+            String file = options.getResult().orElse(Defaults.RESULT_FILE_PREFIX + "." + format.toString().toLowerCase());
+            ResultFormatFactory.getInstance(format, file).writeOut(results);
+        }
+        return results;
+    }
+
+    // Replaces the non-empty directories of `classpath` with jars of their contents. A jar is named by a digest of the
+    // paths, sizes and modification times of the files it packs, so it is reused, unchanged, until those change.
+    private String jarClasspath(String classpath) throws IOException {
+        List<String> entries = new ArrayList<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            Path dir = Paths.get(entry);
+            if (entry.isEmpty() || !Files.isDirectory(dir)) {
+                entries.add(entry);
+                continue;
+            }
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(dir)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            if (files.isEmpty())
+                continue;
+            StringBuilder contents = new StringBuilder(dir.toAbsolutePath().toString());
+            for (Path file : files)
+                contents.append('\0').append(dir.relativize(file)).append(' ').append(Files.size(file)).append(' ').append(Files.getLastModifiedTime(file).toMillis());
+            Path jar = cdsDir.resolve("classpath").resolve(dir.getFileName() + "-" + digest(contents.toString()) + ".jar");
+            if (!Files.exists(jar)) {
+                Files.createDirectories(jar.getParent());
+                Path tempJar = Files.createTempFile(jar.getParent(), dir.getFileName().toString(), ".jar.tmp");
+                try {
+                    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(tempJar))) {
+                        for (Path file : files) {
+                            out.putNextEntry(new JarEntry(dir.relativize(file).toString().replace(File.separatorChar, '/')));
+                            Files.copy(file, out);
+                            out.closeEntry();
+                        }
+                    }
+                    Files.move(tempJar, jar, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tempJar);
+                }
+            }
+            entries.add(jar.toString());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private Path archive(String classpath) throws IOException {
+        String jvm = options.getJvm().orElse(Utils.getCurrentJvm());
+        Collection<String> sources = options.getParameter("source").orElse(Collections.emptyList());
+        if (sources.size() != 1)
+            throw new IllegalArgumentException("-pcds=true needs a single -psource=... for the training run, not " + sources);
+        String source = sources.iterator().next();
+        String corpusVersion = options.getParameter("corpusVersion").hasValue() ? options.getParameter("corpusVersion").get().iterator().next() : "latest";
+
+        String key = key(jvm, classpath, source, corpusVersion);
+        Path archive = cdsDir.resolve(key + ".jsa");
+        if (Files.exists(archive))
+            return archive;
+
+        Files.createDirectories(cdsDir);
+        Path classList = Files.createTempFile(cdsDir, key, ".classlist");
+        Path tempArchive = Files.createTempFile(cdsDir, key, ".jsa.tmp");
+        try {
+            System.out.println("Creating CDS archive from a training compilation of " + source + ", in " + archive);
+            List<String> training = new ArrayList<>(Arrays.asList(jvm, "-Xshare:off", "-XX:DumpLoadedClassList=" + classList, "-Xss2M"));
+            // `scalaVersion` and friends, which the benchmark reads
+            for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                if (arg.startsWith("-D"))
+                    training.add(arg);
+            }
+            training.addAll(Arrays.asList("-cp", classpath, "scala.tools.nsc.ScalacBenchmarkStandalone", source, "1", corpusVersion));
+            exec(training);
+            exec(Arrays.asList(jvm, "-Xshare:dump", "-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + tempArchive, "-cp", classpath));
+            Files.move(tempArchive, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(classList);
+            Files.deleteIfExists(tempArchive);
+        }
+        return archive;
+    }
+
+    private static void exec(List<String> command) throws IOException {
+        try {
+            int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+            if (exitCode != 0)
+                throw new IOException("Exit code " + exitCode + " from: " + String.join(" ", command));
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Size and modification time of the classpath entries stand in for their contents.
+    private static String key(String jvm, String classpath, String source, String corpusVersion) throws IOException {
+        StringBuilder input = new StringBuilder(jvm).append('\0').append(source).append('\0').append(corpusVersion);
+        for (String entry : classpath.split(File.pathSeparator)) {
+            Path path = Paths.get(entry);
+            input.append('\0').append(entry);
+            if (Files.exists(path))
+                input.append(' ').append(Files.size(path)).append(' ').append(Files.getLastModifiedTime(path).toMillis());
+        }
+        return digest(input.toString());
+    }
+
+    private static String digest(String input) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(input.getBytes(StandardCharsets.UTF_8)))
+                hex.append(String.format("%02x", b & 0xff));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
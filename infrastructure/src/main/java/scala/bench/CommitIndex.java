@@ -0,0 +1,336 @@
+package scala.bench;
+
+import com.typesafe.config.ConfigFactory;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// A persistent index of the commits on the branches walked by `GitWalker`, recording for each commit its branch,
+// adjusted commit time, first tag and first-parent depth on that branch. Lookups are O(1) probes of a
+// memory-mapped hash table, so callers don't need to walk or parse the Git history.
+//
+// `update` indexes the commits added to each branch since the head recorded by the last update. Tags are often
+// pushed after the commit they point to has been indexed, so `update` also re-tags all entries when the tag refs of
+// the repository have changed since the last update. When a branch has been rewritten, its old commits are no longer
+// on its first-parent history, so `update` rebuilds the index from scratch rather than keep them.
+//
+// File format (all big endian):
+//   int magic, int version, int capacity, int stringsLength
+//   stringsLength bytes of UTF-8 lines: a fingerprint of the tag refs, the string table (branches and tags, referred
+//     to by line number + 1), an empty line, and a line `<branch> <head sha> <head depth>` per indexed branch
+//   capacity slots of SLOT_SIZE bytes: sha[20], short branchId (0 for an empty slot), int tagId (0 for none),
+//     long adjustedCommitTime, int depth, padding
+public final class CommitIndex {
+    private static final int MAGIC = 0x5343_4958; // SCIX
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 40;
+    private static final String FILE_NAME = "commits.idx";
+
+    public static final class Entry {
+        public final String branch;
+        public final String tag;
+        public final long adjustedCommitTime;
+        public final int depth;
+
+        Entry(String branch, String tag, long adjustedCommitTime, int depth) {
+            this.branch = branch;
+            this.tag = tag;
+            this.adjustedCommitTime = adjustedCommitTime;
+            this.depth = depth;
+        }
+    }
+
+    private static final class Head {
+        final String sha;
+        final int depth;
+
+        Head(String sha, int depth) {
+            this.sha = sha;
+            this.depth = depth;
+        }
+    }
+
+    private final Path file;
+    private final String tagsFingerprint;
+    private final List<String> strings;
+    private final Map<String, Head> heads;
+    private final ByteBuffer table;
+    private final int capacity;
+
+    private CommitIndex(Path file, String tagsFingerprint, List<String> strings, Map<String, Head> heads, ByteBuffer table, int capacity) {
+        this.file = file;
+        this.tagsFingerprint = tagsFingerprint;
+        this.strings = strings;
+        this.heads = heads;
+        this.table = table;
+        this.capacity = capacity;
+    }
+
+    public static CommitIndex open() {
+        return open(Paths.get(ConfigFactory.load().getString("git.index.dir")));
+    }
+
+    static CommitIndex open(Path dir) {
+        Path file = dir.resolve(FILE_NAME);
+        if (!Files.exists(file))
+            return empty(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                // written by another version of the harness, rebuild it
+                return empty(file);
+            }
+            int capacity = buffer.getInt(8);
+            int stringsLength = buffer.getInt(12);
+            byte[] stringBytes = new byte[stringsLength];
+            buffer.position(HEADER_SIZE);
+            buffer.get(stringBytes);
+            String[] lines = new String(stringBytes, StandardCharsets.UTF_8).split("\n", -1);
+            String tagsFingerprint = lines[0];
+            List<String> strings = new ArrayList<>();
+            Map<String, Head> heads = new HashMap<>();
+            boolean inHeads = false;
+            for (String line : Arrays.asList(lines).subList(1, lines.length)) {
+                if (line.isEmpty() && !inHeads) {
+                    inHeads = true;
+                } else if (inHeads) {
+                    if (!line.isEmpty()) {
+                        String[] parts = line.split(" ");
+                        heads.put(parts[0], new Head(parts[1], Integer.parseInt(parts[2])));
+                    }
+                } else {
+                    strings.add(line);
+                }
+            }
+            buffer.position(HEADER_SIZE + stringsLength);
+            ByteBuffer table = buffer.slice();
+            return new CommitIndex(file, tagsFingerprint, strings, heads, table, capacity);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static CommitIndex empty(Path file) {
+        return new CommitIndex(file, "", new ArrayList<>(), new HashMap<>(), ByteBuffer.allocate(0), 0);
+    }
+
+    public Entry get(AnyObjectId commit) {
+        int slot = find(commit);
+        if (slot < 0)
+            return null;
+        int offset = slot * SLOT_SIZE;
+        short branchId = table.getShort(offset + 20);
+        int tagId = table.getInt(offset + 22);
+        long adjustedCommitTime = table.getLong(offset + 26);
+        int depth = table.getInt(offset + 34);
+        return new Entry(strings.get(branchId - 1), tagId == 0 ? null : strings.get(tagId - 1), adjustedCommitTime, depth);
+    }
+
+    public String branchOf(AnyObjectId commit) {
+        Entry entry = get(commit);
+        return entry == null ? null : entry.branch;
+    }
+
+    // Answers from the index when both commits are on the first-parent history of the same branch.
+    // Returns `null` when the index can't tell, and the caller must ask Git.
+    public Boolean isFirstParentAncestor(AnyObjectId ancestor, AnyObjectId descendant) {
+        Entry a = get(ancestor);
+        Entry d = get(descendant);
+        if (a == null || d == null || !a.branch.equals(d.branch))
+            return null;
+        return a.depth <= d.depth;
+    }
+
+    private int find(AnyObjectId commit) {
+        if (capacity == 0)
+            return -1;
+        byte[] sha = new byte[20];
+        commit.copyRawTo(sha, 0);
+        int start = hash(sha);
+        for (int probe = 0; probe < capacity; probe++) {
+            int slot = (start + probe) & (capacity - 1);
+            int offset = slot * SLOT_SIZE;
+            if (table.getShort(offset + 20) == 0)
+                return -1;
+            if (shaEquals(offset, sha))
+                return slot;
+        }
+        return -1;
+    }
+
+    // SHA-1 is uniformly distributed, so its leading bytes make a good hash.
+    private static int hash(byte[] sha) {
+        return (sha[0] & 0xff) << 24 | (sha[1] & 0xff) << 16 | (sha[2] & 0xff) << 8 | (sha[3] & 0xff);
+    }
+
+    private boolean shaEquals(int offset, byte[] sha) {
+        for (int i = 0; i < 20; i++) {
+            if (table.get(offset + i) != sha[i])
+                return false;
+        }
+        return true;
+    }
+
+    // Indexes the commits added to the branches since the last update, returning the updated index.
+    public CommitIndex update(Repository repo) {
+        return update(repo, GitWalker.BRANCHES);
+    }
+
+    // `branches` are pairs of a branch and its fork point, as in `GitWalker.BRANCHES`
+    CommitIndex update(Repository repo, String[][] branches) {
+        Map<ObjectId, Entry> added = new LinkedHashMap<>();
+        Map<String, Head> newHeads = new HashMap<>(heads);
+        String newTagsFingerprint;
+        Map<ObjectId, List<String>> tagIndex = null;
+        try (RevWalk walk = new RevWalk(repo)) {
+            newTagsFingerprint = tagsFingerprint(repo);
+            if (!newTagsFingerprint.equals(tagsFingerprint))
+                tagIndex = GitWalker.tagIndex(repo);
+            for (String[] branchAndForkPoint : branches) {
+                String branch = branchAndForkPoint[0];
+                ObjectId head = GitWalker.resolve(branch, repo);
+                Head indexedHead = heads.get(branch);
+                if (indexedHead != null && indexedHead.sha.equals(head.getName()))
+                    continue;
+                if (tagIndex == null)
+                    tagIndex = GitWalker.tagIndex(repo);
+
+                // Walk back to the indexed head, or to the fork point if the branch has been rewritten.
+                ObjectId forkPoint = GitWalker.resolve(branchAndForkPoint[1], repo);
+                List<RevCommit> commits = new ArrayList<>();
+                int baseDepth = -1;
+                RevCommit revCommit = walk.parseCommit(head);
+                while (true) {
+                    if (indexedHead != null && revCommit.getName().equals(indexedHead.sha)) {
+                        baseDepth = indexedHead.depth;
+                        break;
+                    }
+                    commits.add(revCommit);
+                    if (revCommit.equals(forkPoint) || revCommit.getParentCount() == 0)
+                        break;
+                    revCommit = walk.parseCommit(revCommit.getParent(0));
+                }
+                if (indexedHead != null && baseDepth < 0) {
+                    // Rewritten: the walk never met the indexed head
+                    return empty(file).update(repo, branches);
+                }
+                int depth = baseDepth + commits.size();
+                newHeads.put(branch, new Head(head.getName(), depth));
+                for (RevCommit commit : commits) {
+                    added.put(commit.copy(), new Entry(branch, firstTag(tagIndex, commit), GitWalker.adjustCommitTime(walk, commit), depth));
+                    depth -= 1;
+                }
+            }
+        } catch (IOException | GitAPIException e) {
+            throw new RuntimeException(e);
+        }
+        boolean retag = !newTagsFingerprint.equals(tagsFingerprint);
+        if (added.isEmpty() && newHeads.equals(heads) && !retag)
+            return this;
+        write(added, newHeads, retag ? tagIndex : null, newTagsFingerprint);
+        return open(file.getParent());
+    }
+
+    private static String firstTag(Map<ObjectId, List<String>> tagIndex, ObjectId commit) {
+        List<String> tags = tagIndex.getOrDefault(commit, Collections.emptyList());
+        return tags.isEmpty() ? null : tags.get(0);
+    }
+
+    // Changes whenever a tag is added, removed or moved, without parsing the tags.
+    private static String tagsFingerprint(Repository repo) throws IOException {
+        StringBuilder refs = new StringBuilder();
+        for (Map.Entry<String, Ref> tag : new TreeMap<>(repo.getRefDatabase().getRefs(Constants.R_TAGS)).entrySet())
+            refs.append(tag.getKey()).append(' ').append(tag.getValue().getObjectId().getName()).append('\n');
+        return ObjectId.fromRaw(Constants.newMessageDigest().digest(refs.toString().getBytes(StandardCharsets.UTF_8))).getName();
+    }
+
+    // Re-tags the indexed entries with `tagIndex`, unless it is null.
+    private void write(Map<ObjectId, Entry> added, Map<String, Head> newHeads, Map<ObjectId, List<String>> tagIndex, String newTagsFingerprint) {
+        Map<ObjectId, Entry> entries = new LinkedHashMap<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = slot * SLOT_SIZE;
+            if (table.getShort(offset + 20) != 0) {
+                byte[] sha = new byte[20];
+                for (int i = 0; i < 20; i++)
+                    sha[i] = table.get(offset + i);
+                ObjectId id = ObjectId.fromRaw(sha);
+                Entry entry = get(id);
+                if (tagIndex != null)
+                    entry = new Entry(entry.branch, firstTag(tagIndex, id), entry.adjustedCommitTime, entry.depth);
+                entries.put(id, entry);
+            }
+        }
+        // Later branches take precedence for commits on several branches, as in `GitWalker`.
+        entries.putAll(added);
+
+        List<String> newStrings = new ArrayList<>();
+        Map<String, Integer> stringIds = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            stringIds.computeIfAbsent(entry.branch, s -> { newStrings.add(s); return newStrings.size(); });
+            if (entry.tag != null)
+                stringIds.computeIfAbsent(entry.tag, s -> { newStrings.add(s); return newStrings.size(); });
+        }
+        StringBuilder stringsSection = new StringBuilder(newTagsFingerprint).append('\n');
+        for (String s : newStrings)
+            stringsSection.append(s).append('\n');
+        stringsSection.append('\n');
+        for (Map.Entry<String, Head> head : new TreeMap<>(newHeads).entrySet())
+            stringsSection.append(head.getKey()).append(' ').append(head.getValue().sha).append(' ').append(head.getValue().depth).append('\n');
+        byte[] stringBytes = stringsSection.toString().getBytes(StandardCharsets.UTF_8);
+
+        int newCapacity = Integer.highestOneBit(Math.max(16, entries.size() * 2) - 1) << 1;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + stringBytes.length + newCapacity * SLOT_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(newCapacity).putInt(stringBytes.length).put(stringBytes);
+        int tableStart = buffer.position();
+        byte[] sha = new byte[20];
+        for (Map.Entry<ObjectId, Entry> e : entries.entrySet()) {
+            e.getKey().copyRawTo(sha, 0);
+            int slot = hash(sha);
+            int offset;
+            while (true) {
+                offset = tableStart + (slot & (newCapacity - 1)) * SLOT_SIZE;
+                if (buffer.getShort(offset + 20) == 0)
+                    break;
+                slot++;
+            }
+            Entry entry = e.getValue();
+            buffer.position(offset);
+            buffer.put(sha)
+                    .putShort((short) (int) stringIds.get(entry.branch))
+                    .putInt(entry.tag == null ? 0 : stringIds.get(entry.tag))
+                    .putLong(entry.adjustedCommitTime)
+                    .putInt(entry.depth);
+        }
+        buffer.position(0);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            // Readers keep their mapping of the replaced file, so concurrent launches never see a partial index.
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
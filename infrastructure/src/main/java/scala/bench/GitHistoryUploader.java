@@ -18,8 +18,9 @@ public class GitHistoryUploader {
             GitWalkerResult result = GitWalker.walk(gitRepo);
             InfluxDB influxDB = connectDb();
             try {
-                System.out.println("Writing results to DB...");
+                System.out.println("Writing " + result.getBatchPoints().getPoints().size() + " new commits to DB...");
                 influxDB.write(result.getBatchPoints());
+                result.markUploaded();
                 System.out.println("Done.");
             } finally {
                 influxDB.close();
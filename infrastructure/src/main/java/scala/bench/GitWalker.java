@@ -2,6 +2,7 @@ package scala.bench;
 
 import com.google.common.escape.Escaper;
 import com.google.common.html.HtmlEscapers;
+import com.typesafe.config.ConfigFactory;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -14,57 +15,78 @@ import org.influxdb.dto.BatchPoints;
 import org.influxdb.dto.Point;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 public class GitWalker {
+    // forkPoint parameter generated manually with:
+    // git log --topo-order --first-parent --oneline 2.13.x --not 2.12.x | tail -1
+    // TODO find this with JGit.
+    static final String[][] BRANCHES = {
+            {"2.13.x", "fc1aea6712"},
+            {"2.12.x", "132a0587ab"},
+            {"v2.12.0", "05016d9035"},
+            {"2.11.x", "7ac15a1210"},
+            {"2.10.x", "cc672b023e"},
+            {"2.9.x", "33e1dac4e4"},
+    };
+
     public static GitWalkerResult walk(Repository repo) {
-        Map<String, String> branchesMap = new HashMap<>();
+        Path stateDir = Paths.get(ConfigFactory.load().getString("git.walker.statedir"));
+        return walk(repo, GitWalkerState.load(stateDir), CommitIndex.open().update(repo));
+    }
+
+    // Only creates points for the commits since those uploaded by an earlier run, as recorded in `state`.
+    static GitWalkerResult walk(Repository repo, GitWalkerState state, CommitIndex index) {
+        Map<String, String> heads = new HashMap<>();
 
-        // forkPoint parameter generated manually with:
-        // git log --topo-order --first-parent --oneline 2.13.x --not 2.12.x | tail -1
-        // TODO find this with JGit.
         BatchPoints batchPoints = BatchPoints
                 .database("scala_benchmark")
                 .retentionPolicy("autogen")
                 .consistency(InfluxDB.ConsistencyLevel.ALL)
                 .build();
-        createPoints("2.13.x", "fc1aea6712", batchPoints, repo, branchesMap);
-        createPoints("2.12.x", "132a0587ab", batchPoints, repo, branchesMap);
-        createPoints("v2.12.0", "05016d9035", batchPoints, repo, branchesMap);
-        createPoints("2.11.x", "7ac15a1210", batchPoints, repo, branchesMap);
-        createPoints("2.10.x", "cc672b023e", batchPoints, repo, branchesMap);
-        createPoints("2.9.x", "33e1dac4e4", batchPoints, repo, branchesMap);
-        return new GitWalkerResult(batchPoints, branchesMap, repo);
+        try {
+            for (String[] branch : BRANCHES) {
+                String head = createPoints(branch[0], branch[1], state.watermark(branch[0]), batchPoints, repo, index);
+                heads.put(branch[0], head);
+            }
+        } catch (IOException t) {
+            throw new RuntimeException(t);
+        }
+        return new GitWalkerResult(batchPoints, index, repo, state, heads);
     }
 
-    private static int countParentsWithSameCommitTime(RevCommit revCommit) {
-        RevCommit parent = revCommit.getParent(0);
+    // Parents are parsed with `walk`, as those of a parsed commit are not.
+    private static int countParentsWithSameCommitTime(RevWalk walk, RevCommit revCommit) throws IOException {
         int numParentsWithSameCommitTime = 0;
-        while (parent.getCommitTime() == revCommit.getCommitTime()) {
+        RevCommit commit = revCommit;
+        while (commit.getParentCount() > 0) {
+            RevCommit parent = walk.parseCommit(commit.getParent(0));
+            if (parent.getCommitTime() != revCommit.getCommitTime())
+                break;
             numParentsWithSameCommitTime += 1;
-            parent = revCommit.getParent(0);
+            commit = parent;
         }
         return numParentsWithSameCommitTime;
     }
 
-    static long adjustCommitTime(RevCommit revCommit) {
-        int numParentsWithSameCommitTime = countParentsWithSameCommitTime(revCommit);
+    static long adjustCommitTime(RevWalk walk, RevCommit revCommit) throws IOException {
+        int numParentsWithSameCommitTime = countParentsWithSameCommitTime(walk, revCommit);
         return (long) revCommit.getCommitTime() * 1000L + numParentsWithSameCommitTime * 10;
     }
 
-    public void upload(BatchPoints batchPoints) {
+    // Walks the first-parent history of `branch` back to the `forkPoint` or to the `watermark` commit,
+    // whichever comes first. Returns the head of the branch.
+    private static String createPoints(String branch, String forkPoint, String watermark, BatchPoints batchPoints, Repository repo,
+                                       CommitIndex index) throws IOException {
+        ObjectId resolvedBranch = resolve(branch, repo);
+        ObjectId resolvedForkPoint = resolve(forkPoint, repo);
 
-    }
-
-    private static BatchPoints createPoints(String branch, String forkPoint, BatchPoints batchPoints, Repository repo, Map<String, String> branchesMap) {
-        try {
-            ObjectId resolvedBranch = resolve(branch, repo);
-            ObjectId resolvedForkPoint = resolve(forkPoint, repo);
-
-            RevWalk walk = new RevWalk(repo);
+        try (RevWalk walk = new RevWalk(repo)) {
             RevCommit revCommit = walk.parseCommit(resolvedBranch);
-            boolean done = false;
+            boolean done = revCommit.getName().equals(watermark);
             while (!done) {
                 Escaper escaper = HtmlEscapers.htmlEscaper();
                 String commiterName = revCommit.getCommitterIdent().getName();
@@ -78,8 +100,9 @@ public class GitWalker {
                         escaper.escape(commiterName),
                         escaper.escape(StringUtils.abbreviate(sanitizedMessage, 2048))
                 );
+                CommitIndex.Entry entry = index.get(revCommit);
                 Point.Builder pointBuilder = Point.measurement("commit")
-                        .time(adjustCommitTime(revCommit), TimeUnit.MILLISECONDS)
+                        .time(entry.adjustedCommitTime, TimeUnit.MILLISECONDS)
                         .tag("branch", branch)
                         .addField("sha", revCommit.name())
                         .addField("shortsha", revCommit.name().substring(0, 10))
@@ -87,25 +110,22 @@ public class GitWalker {
                         .addField("shortMessage", sanitizedMessage)
                         .addField("message", sanitizedMessage)
                         .addField("annotationHtml", annotationHtml);
-                List<String> tags = tagsOfCommit(walk, revCommit, repo);
-                if (!tags.isEmpty()) {
-                    pointBuilder.addField("tag", tags.get(0));
+                if (entry.tag != null) {
+                    pointBuilder.addField("tag", entry.tag);
                 }
                 Point point = pointBuilder.build();
 
-                branchesMap.put(revCommit.name(), branch);
                 batchPoints.point(point);
 
                 if (resolvedForkPoint.getName().equals(revCommit.getName())) {
                     done = true;
                 } else {
                     revCommit = walk.parseCommit(revCommit.getParent(0));
+                    done = revCommit.getName().equals(watermark);
                 }
             }
-        } catch (IOException | GitAPIException t) {
-            throw new RuntimeException(t);
+            return resolvedBranch.getName();
         }
-        return batchPoints;
     }
 
     public static String sanitize(String fullMessage) {
@@ -134,32 +154,45 @@ public class GitWalker {
         }
     }
 
-    public static List<String> tagsOfCommit(RevWalk walk, RevCommit revCommit, Repository repo) throws IOException, GitAPIException {
+    // Indexes the tags of the repository by the commit they refer to, so that finding the tags of a commit
+    // doesn't have to parse every tag.
+    static Map<ObjectId, List<String>> tagIndex(Repository repo) throws IOException, GitAPIException {
+        Map<ObjectId, List<String>> index = new HashMap<>();
         List<Ref> tagList = new Git(repo).tagList().call();
-        List<String> tags = new ArrayList<String>();
-        for (Ref tag : tagList) {
-            RevObject object = walk.parseAny(tag.getObjectId());
-            if (object instanceof RevTag) {
-                if (((RevTag) object).getObject().equals(revCommit)) {
-                    tags.add(((RevTag) object).getTagName());
-                }
-            } else if (object instanceof RevCommit) {
-                if (object.equals(revCommit)) {
-                    tags.add(tag.getName());
+        try (RevWalk walk = new RevWalk(repo)) {
+            for (Ref tag : tagList) {
+                RevObject object = walk.parseAny(tag.getObjectId());
+                if (object instanceof RevTag) {
+                    RevTag revTag = (RevTag) object;
+                    index.computeIfAbsent(revTag.getObject().copy(), k -> new ArrayList<>()).add(revTag.getTagName());
+                } else if (object instanceof RevCommit) {
+                    index.computeIfAbsent(object.copy(), k -> new ArrayList<>()).add(tag.getName());
+                } else {
+                    // invalid
                 }
-
-            } else {
-                // invalid
             }
         }
-        return tags;
+        return index;
     }
 
     public static boolean isAncestor(String rev, String scalaRef, Repository repo) throws IOException {
+        return isAncestor(rev, scalaRef, repo, CommitIndex.open());
+    }
+
+    public static boolean isAncestor(String rev, String scalaRef, Repository repo, CommitIndex index) throws IOException {
+        ObjectId revId = GitWalker.resolve(rev, repo);
+        ObjectId scalaRefId = GitWalker.resolve(scalaRef, repo);
+        Boolean indexed = index.isFirstParentAncestor(revId, scalaRefId);
+        if (indexed != null)
+            return indexed;
+        return isMergedInto(revId, scalaRefId, repo);
+    }
+
+    static boolean isMergedInto(ObjectId revId, ObjectId scalaRefId, Repository repo) throws IOException {
         RevWalk walk = new RevWalk(repo);
         try {
-            RevCommit revCommit = walk.parseCommit(GitWalker.resolve(rev, repo));
-            RevCommit scalaRefCommit = walk.parseCommit(GitWalker.resolve(scalaRef, repo));
+            RevCommit revCommit = walk.parseCommit(revId);
+            RevCommit scalaRefCommit = walk.parseCommit(scalaRefId);
             return walk.isMergedInto(revCommit, scalaRefCommit);
         } finally {
             walk.dispose();
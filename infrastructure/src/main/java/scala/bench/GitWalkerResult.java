@@ -11,21 +11,31 @@ public class GitWalkerResult {
         return batchPoints;
     }
 
-    public Map<String, String> getBranchesMap() {
-        return branchesMap;
+    public CommitIndex getIndex() {
+        return index;
     }
 
     public BatchPoints batchPoints;
-    private Map<String, String> branchesMap;
+    private CommitIndex index;
     private Repository repo;
+    private GitWalkerState state;
+    private Map<String, String> heads;
 
-    public GitWalkerResult(BatchPoints batchPoints, Map<String, String> branchesMap, Repository repo) {
+    GitWalkerResult(BatchPoints batchPoints, CommitIndex index, Repository repo, GitWalkerState state, Map<String, String> heads) {
 
         this.batchPoints = batchPoints;
-        this.branchesMap = branchesMap;
+        this.index = index;
         this.repo = repo;
+        this.state = state;
+        this.heads = heads;
     }
+
+    // Records that the points of this walk have been uploaded, so the next walk starts from the current heads.
+    public void markUploaded() {
+        state.save(heads);
+    }
+
     public String branchOfRef(String scalaVersion) {
-        return branchesMap.get(GitWalker.resolve(scalaVersion, repo).getName());
+        return index.branchOf(GitWalker.resolve(scalaVersion, repo));
     }
 }
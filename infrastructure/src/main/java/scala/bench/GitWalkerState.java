@@ -0,0 +1,55 @@
+package scala.bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+
+// The newest commit of each branch whose point was uploaded by an earlier run of `GitWalker` (the watermark).
+class GitWalkerState {
+    private static final String WATERMARKS = "watermarks.properties";
+
+    private final Path dir;
+    private final Properties watermarks;
+
+    private GitWalkerState(Path dir, Properties watermarks) {
+        this.dir = dir;
+        this.watermarks = watermarks;
+    }
+
+    static GitWalkerState load(Path dir) {
+        Properties watermarks = new Properties();
+        Path watermarksFile = dir.resolve(WATERMARKS);
+        if (Files.exists(watermarksFile)) {
+            try (Reader reader = Files.newBufferedReader(watermarksFile, StandardCharsets.UTF_8)) {
+                watermarks.load(reader);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return new GitWalkerState(dir, watermarks);
+    }
+
+    String watermark(String branch) {
+        return watermarks.getProperty(branch);
+    }
+
+    void save(Map<String, String> heads) {
+        watermarks.putAll(heads);
+        try {
+            Files.createDirectories(dir);
+            Path temp = dir.resolve(WATERMARKS + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                watermarks.store(writer, "Newest commit uploaded by GitWalker, per branch");
+            }
+            Files.move(temp, dir.resolve(WATERMARKS), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package scala.bench;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.Defaults;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.format.OutputFormat;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.ListStatistics;
+import org.openjdk.jmh.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+// Runs the forks of a benchmark concurrently, rather than one after another as JMH does. Each
+// concurrent JMH `Runner` is pinned with `taskset` to its own slice of the shielded CPUs, and the
+// forks of all runners are merged into a single `RunResult` per benchmark.
+//
+// Enabled with `-Dbenchmark.parallel.forks=N`, e.g. `cold -psource=scala -f 16`.
+public class ParallelForkRunner {
+    private static final double INTERFERENCE_CONFIDENCE = 0.99;
+
+    private final Options options;
+    private final OutputFormat out;
+    private final int parallelism;
+    private final int baselineForks;
+    private final List<String> cpuSets;
+    private final Path logDir;
+
+    public ParallelForkRunner(Options options) throws IOException {
+        this(options, OutputFormatFactory.createFormatInstance(System.out, options.verbosity().orElse(Defaults.VERBOSITY)));
+    }
+
+    // Reports the merged results to `out`, e.g. an `UploadingOutputFormat`
+    public ParallelForkRunner(Options options, OutputFormat out) throws IOException {
+        Config conf = ConfigFactory.load();
+        this.options = options;
+        this.out = out;
+        this.parallelism = conf.getInt("benchmark.parallel.forks");
+        this.baselineForks = conf.getInt("benchmark.parallel.baselineForks");
+        this.cpuSets = cpuSets(conf);
+        this.logDir = Files.createTempDirectory("parallel-forks");
+    }
+
+    public static boolean isEnabled() {
+        return ConfigFactory.load().getInt("benchmark.parallel.forks") > 1;
+    }
+
+    // Checks `benchmark.parallel.forks` against the CPUs to share out, before any benchmark runs
+    public static void checkConfig() throws IOException {
+        if (isEnabled())
+            cpuSets(ConfigFactory.load());
+    }
+
+    private static List<String> cpuSets(Config conf) throws IOException {
+        int forks = conf.getInt("benchmark.parallel.forks");
+        String configured = conf.getString("benchmark.parallel.cpus");
+        List<Integer> cpus = cpuList(configured);
+        if (cpus.size() < forks) {
+            String source = configured.isEmpty()
+                    ? "benchmark.parallel.cpus, by default the cpuShield of scripts/benv or else all processors,"
+                    : "benchmark.parallel.cpus=" + configured;
+            throw new IllegalArgumentException("benchmark.parallel.forks=" + forks + " needs a CPU per fork, but " + source
+                    + " has " + cpus.size() + ": " + cpus + ". Set -Dbenchmark.parallel.cpus to more CPUs, or run fewer forks.");
+        }
+        return partition(cpus, forks);
+    }
+
+    public Collection<RunResult> run() throws RunnerException {
+        // Concurrent runners in this JVM would otherwise refuse to share the JMH lock file.
+        System.setProperty("jmh.ignoreLock", "true");
+
+        Collection<RunResult> baseline = Collections.emptyList();
+        if (baselineForks > 0) {
+            System.out.println("Running " + baselineForks + " serial baseline fork(s) on CPUs " + cpuSets.get(0));
+            baseline = runSlot("baseline", baselineForks, cpuSets.get(0));
+        }
+
+        int totalForks = options.getForkCount().orElse(declaredForks());
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<Future<Collection<RunResult>>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                int forks = totalForks / parallelism + (i < totalForks % parallelism ? 1 : 0);
+                if (forks == 0)
+                    continue;
+                String slot = "slot" + i;
+                String cpus = cpuSets.get(i);
+                System.out.println("Running " + forks + " fork(s) on CPUs " + cpus + ", output in " + logDir.resolve(slot + ".log"));
+                futures.add(executor.submit(() -> runSlot(slot, forks, cpus)));
+            }
+            List<RunResult> slotResults = new ArrayList<>();
+            for (Future<Collection<RunResult>> future : futures) {
+                slotResults.addAll(future.get());
+            }
+            Collection<RunResult> merged = merge(slotResults);
+            printResults(merged);
+            reportInterference(baseline, merged);
+            return merged;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RunnerException("Parallel fork failed", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // The forks of the `@Fork` annotation of the selected benchmarks, as a serial run would use without `-f`
+    private int declaredForks() throws RunnerException {
+        Set<Integer> forks = new TreeSet<>();
+        for (BenchmarkListEntry entry : BenchmarkList.defaultList().find(out, options.getIncludes(), options.getExcludes()))
+            forks.add(entry.getForks().orElse(Defaults.MEASUREMENT_FORKS));
+        if (forks.isEmpty())
+            throw new RunnerException("No matching benchmarks");
+        if (forks.size() > 1)
+            throw new RunnerException("The selected benchmarks declare different fork counts " + forks + ", pass one with -f");
+        return forks.iterator().next();
+    }
+
+    private Collection<RunResult> runSlot(String slot, int forks, String cpus) throws RunnerException {
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options)
+                .forks(forks)
+                .jvm(pinnedJvm(slot, cpus))
+                .output(logDir.resolve(slot + ".log").toString());
+        if (options.getResultFormat().hasValue()) {
+            builder.result(logDir.resolve(slot + "." + options.getResultFormat().get().toString().toLowerCase()).toString());
+        }
+        return new Runner(builder.build()).run();
+    }
+
+    // JMH launches forks with the `-jvm` executable, so a wrapper script applies the CPU affinity.
+    private String pinnedJvm(String slot, String cpus) {
+        String jvm = options.getJvm().orElse(Utils.getCurrentJvm());
+        if (!onPath("taskset")) {
+            System.err.println("taskset not found, forks of " + slot + " will not be pinned to CPUs " + cpus);
+            return jvm;
+        }
+        try {
+            Path script = logDir.resolve(slot + "-java");
+            String content = "#!/bin/sh\nexec taskset -c " + cpus + " \"" + jvm + "\" \"$@\"\n";
+            Files.write(script, content.getBytes(StandardCharsets.UTF_8));
+            if (!script.toFile().setExecutable(true))
+                throw new IOException("Cannot make " + script + " executable");
+            return script.toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean onPath(String executable) {
+        String path = System.getenv("PATH");
+        if (path == null)
+            return false;
+        for (String dir : path.split(File.pathSeparator)) {
+            if (Files.isExecutable(Paths.get(dir, executable)))
+                return true;
+        }
+        return false;
+    }
+
+    private static Collection<RunResult> merge(Collection<RunResult> runResults) {
+        Map<String, BenchmarkParams> params = new LinkedHashMap<>();
+        Map<String, List<BenchmarkResult>> forks = new LinkedHashMap<>();
+        for (RunResult runResult : runResults) {
+            String key = key(runResult.getParams());
+            params.putIfAbsent(key, runResult.getParams());
+            forks.computeIfAbsent(key, k -> new ArrayList<>()).addAll(runResult.getBenchmarkResults());
+        }
+        List<RunResult> merged = new ArrayList<>();
+        for (Map.Entry<String, List<BenchmarkResult>> entry : forks.entrySet()) {
+            merged.add(new RunResult(params.get(entry.getKey()), entry.getValue()));
+        }
+        return merged;
+    }
+
+    // `BenchmarkParams` of the runners differ in their fork count and JVM, so these can't be used as the key.
+    private static String key(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark()).append(' ').append(params.getMode());
+        for (String paramKey : new TreeSet<>(params.getParamsKeys())) {
+            key.append(' ').append(paramKey).append('=').append(params.getParam(paramKey));
+        }
+        return key.toString();
+    }
+
+    private void printResults(Collection<RunResult> merged) {
+        for (RunResult result : merged)
+            out.endBenchmark(result.getAggregatedResult());
+        out.endRun(merged);
+        if (options.getResultFormat().hasValue()) {
+            ResultFormatType format = options.getResultFormat().get();
+            String file = options.getResult().orElse(Defaults.RESULT_FILE_PREFIX + "." + format.toString().toLowerCase());
+            ResultFormatFactory.getInstance(format, file).writeOut(merged);
+        }
+    }
+
+    // Compares the fork-to-fork distribution of the parallel forks against forks run serially, which
+    // shows whether concurrent forks are disturbing each other (shared caches, memory bandwidth, ...)
+    private static void reportInterference(Collection<RunResult> baseline, Collection<RunResult> merged) {
+        if (baseline.isEmpty())
+            return;
+        Map<String, RunResult> baselineByKey = baseline.stream().collect(Collectors.toMap(r -> key(r.getParams()), r -> r));
+        System.out.println();
+        System.out.println("Cross-fork interference (serial baseline vs parallel forks):");
+        for (RunResult parallel : merged) {
+            RunResult serial = baselineByKey.get(key(parallel.getParams()));
+            if (serial == null)
+                continue;
+            ListStatistics serialStats = perForkScores(serial);
+            ListStatistics parallelStats = perForkScores(parallel);
+            double deltaPercent = 100 * (parallelStats.getMean() - serialStats.getMean()) / serialStats.getMean();
+            double stdevRatio = parallelStats.getStandardDeviation() / serialStats.getStandardDeviation();
+            boolean different = serialStats.getN() > 1 && parallelStats.getN() > 1 && serialStats.isDifferent(parallelStats, INTERFERENCE_CONFIDENCE);
+            System.out.println(String.format("  %s: serial %.3f +- %.3f (n=%d), parallel %.3f +- %.3f (n=%d), mean %+.1f%%, stdev ratio %.2f%s",
+                    key(parallel.getParams()),
+                    serialStats.getMean(), serialStats.getStandardDeviation(), serialStats.getN(),
+                    parallelStats.getMean(), parallelStats.getStandardDeviation(), parallelStats.getN(),
+                    deltaPercent, stdevRatio,
+                    different ? "  [WARNING: differs from serial baseline at " + (int) (INTERFERENCE_CONFIDENCE * 100) + "% confidence]" : ""));
+        }
+    }
+
+    private static ListStatistics perForkScores(RunResult runResult) {
+        ListStatistics stats = new ListStatistics();
+        for (BenchmarkResult fork : runResult.getBenchmarkResults()) {
+            stats.addValue(fork.getPrimaryResult().getScore());
+        }
+        return stats;
+    }
+
+    // Falls back to the `cpuShield` of `scripts/benv`, and then to all available processors.
+    static List<Integer> cpuList(String configured) throws IOException {
+        if (configured.isEmpty()) {
+            for (Path benv : Arrays.asList(Paths.get("scripts", "benv"), Paths.get("..", "scripts", "benv"))) {
+                if (Files.exists(benv)) {
+                    Optional<String> shield = Files.readAllLines(benv).stream()
+                            .filter(l -> l.startsWith("cpuShield="))
+                            .map(l -> l.substring("cpuShield=".length()).trim())
+                            .findFirst();
+                    if (shield.isPresent()) {
+                        configured = shield.get();
+                        break;
+                    }
+                }
+            }
+        }
+        if (configured.isEmpty())
+            configured = "0-" + (Runtime.getRuntime().availableProcessors() - 1);
+
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : configured.split(",")) {
+            String[] bounds = range.trim().split("-");
+            int from = Integer.parseInt(bounds[0]);
+            int to = bounds.length > 1 ? Integer.parseInt(bounds[1]) : from;
+            for (int cpu = from; cpu <= to; cpu++)
+                cpus.add(cpu);
+        }
+        return cpus;
+    }
+
+    // Splits `cpus` into `n` contiguous slices in `taskset -c` list format.
+    static List<String> partition(List<Integer> cpus, int n) {
+        if (cpus.size() < n)
+            throw new IllegalArgumentException("Cannot run " + n + " parallel forks on CPUs " + cpus);
+        List<String> result = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i < n; i++) {
+            int to = from + cpus.size() / n + (i < cpus.size() % n ? 1 : 0);
+            result.add(cpus.subList(from, to).stream().map(String::valueOf).collect(Collectors.joining(",")));
+            from = to;
+        }
+        return result;
+    }
+}
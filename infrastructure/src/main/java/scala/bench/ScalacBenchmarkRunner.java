@@ -1,9 +1,14 @@
 package scala.bench;
 
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigUtil;
 import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.results.RunResult;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.options.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.Collection;
@@ -20,41 +25,33 @@ public class ScalacBenchmarkRunner {
         if (scalaRef == null)
             throw new RuntimeException("Please provide -DscalaRef=...");
 
+        Config corpusVersions = corpusVersions();
+        if (!corpusVersions.hasPath(ConfigUtil.quoteString(source)))
+            return null;
+
         // TODO: git fetch --tags
+        AncestryCache ancestry = AncestryCache.open(repo);
         try {
-
-            switch (source) {
-                case "vector":
-                    if (GitWalker.isAncestor("6ff3fac", scalaRef, repo)) // 2.13 collections were merged in 6ff3fac
-                        return "e3df10a";
-                    if (GitWalker.isAncestor("v2.11.0", scalaRef, repo))
-                        return "fb04376"; // compiles with 2.11.0, but not with 2.10.6
-                    break;
-
-                case "scalap":
-                    if (GitWalker.isAncestor("v2.10.1", scalaRef, repo))
-                        return "a8c43dc"; // compiles with 2.10.1, but not with 2.9.3
-                    break;
-
-                case "better-files":
-                    if (GitWalker.isAncestor("v2.10.2", scalaRef, repo))
-                        return "a45f905"; // compiles with 2.10.2, but not with 2.10.1
-                    break;
-
-                case "scala":
-                    if (GitWalker.isAncestor("df29ebb", scalaRef, repo))
-                        return "df29ebb";
-                    if (GitWalker.isAncestor("v2.11.5", scalaRef, repo))
-                        return "21d12e9";
-                    break;
+            for (Config entry : corpusVersions.getConfigList(ConfigUtil.quoteString(source))) {
+                if (ancestry.isAncestor(entry.getString("since"), scalaRef))
+                    return entry.getString("corpus");
             }
         } catch (IllegalArgumentException iae){
             // ignore, we might be on a dotty commit, just pick latest
+        } finally {
+            ancestry.save();
         }
 
         return null;
     }
 
+    private static Config corpusVersions() {
+        String file = ConfigFactory.load().getString("benchmark.corpusVersions");
+        if (file.isEmpty())
+            return ConfigFactory.parseResources(ScalacBenchmarkRunner.class, "/corpus-versions.conf");
+        return ConfigFactory.parseFile(new File(file));
+    }
+
     public static Options setParameters(CommandLineOptions clOpts) throws IOException {
         ChainedOptionsBuilder b = new OptionsBuilder()
                 .parent(clOpts)
@@ -66,7 +63,7 @@ public class ScalacBenchmarkRunner {
         if (source != null) {
             String corpusVer = corpusVersion(source);
             if (corpusVer != null)
-              b.param("corpusVersion", corpusVersion(source));
+              b.param("corpusVersion", corpusVer);
         }
         return b.build();
     }
@@ -81,7 +78,17 @@ public class ScalacBenchmarkRunner {
         if (opts.verbosity().orElse(VerboseMode.NORMAL) == VerboseMode.EXTRA) {
             printCommandLine(args);
         }
-        new Runner(setParameters(opts)).run();
+        Options options = setParameters(opts);
+        ParallelForkRunner.checkConfig();
+        Collection<RunResult> results;
+        if (CdsRunner.isEnabled(options)) {
+            results = new CdsRunner(options).run();
+        } else if (ParallelForkRunner.isEnabled()) {
+            results = new ParallelForkRunner(options).run();
+        } else {
+            results = new Runner(options).run();
+        }
+        ScalingReport.fromConfig().print(results, System.out);
     }
 
     private static void printCommandLine(String[] args) {
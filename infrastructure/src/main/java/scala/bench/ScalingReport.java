@@ -0,0 +1,196 @@
+package scala.bench;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.Defaults;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.io.PrintStream;
+import java.util.*;
+
+// How the results of a run over `gen:` sources of different sizes grow with the size, e.g. for
+// `-psource=gen:patmat:100,gen:patmat:200,gen:patmat:400`. Between consecutive sizes `n1` and `n2`, the local exponent
+// `log(y2 / y1) / log(n2 / n1)` of a metric `y` is about 1 for linear growth and 2 for quadratic growth, and stays
+// constant for any polynomial. It increases with the size for exponential growth, which is flagged once it also exceeds
+// `benchmark.scaling.maxExponent`. With `SourceSizeProfiler`, growth is measured against the lines of the sources, so
+// that an exponent above 1 shows compile time growing faster than the project, and the `perKloc` metrics are also
+// reported per thousand lines, e.g. `heap.live.peak.per.kloc` in MB/kLOC.
+public final class ScalingReport {
+    private final List<String> metrics;
+    private final List<String> perKloc;
+    private final double maxExponent;
+
+    public ScalingReport(List<String> metrics, List<String> perKloc, double maxExponent) {
+        this.metrics = metrics;
+        this.perKloc = perKloc;
+        this.maxExponent = maxExponent;
+    }
+
+    public static ScalingReport fromConfig() {
+        Config config = ConfigFactory.load().getConfig("benchmark.scaling");
+        return new ScalingReport(config.getStringList("metrics"), config.getStringList("perKloc"), config.getDouble("maxExponent"));
+    }
+
+    // Results of the same benchmark and generator, with the same other parameters and sizes but one
+    private static final class Series {
+        final String title;
+        final TreeMap<Integer, RunResult> bySize = new TreeMap<>();
+
+        Series(String title) {
+            this.title = title;
+        }
+    }
+
+    public void print(Collection<RunResult> results, PrintStream out) {
+        Map<String, List<RunResult>> groups = new LinkedHashMap<>();
+        for (RunResult result : results) {
+            String source = result.getParams().getParam("source");
+            if (source == null || !source.startsWith("gen:") || sizes(source).length == 0)
+                continue;
+            groups.computeIfAbsent(groupKey(result.getParams()), k -> new ArrayList<>()).add(result);
+        }
+        for (List<RunResult> group : groups.values()) {
+            Series series = series(group);
+            if (series == null) {
+                out.println("Not reporting scaling of " + group.get(0).getParams().getBenchmark() + " over sources that differ in more than one size");
+            } else if (series.bySize.size() > 1) {
+                print(series, out);
+            }
+        }
+    }
+
+    private static String generator(String source) {
+        return source.split(":")[1];
+    }
+
+    private static int[] sizes(String source) {
+        String[] parts = source.split(":");
+        int[] sizes = new int[parts.length - 2];
+        try {
+            for (int i = 0; i < sizes.length; i++)
+                sizes[i] = Integer.parseInt(parts[i + 2]);
+        } catch (NumberFormatException e) {
+            return new int[0];
+        }
+        return sizes;
+    }
+
+    private static String groupKey(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark()).append(' ').append(params.getMode());
+        for (String name : params.getParamsKeys()) {
+            if (!name.equals("source"))
+                key.append(' ').append(name).append('=').append(params.getParam(name));
+        }
+        String source = params.getParam("source");
+        return key.append(' ').append(generator(source)).append('/').append(sizes(source).length).toString();
+    }
+
+    private static Series series(List<RunResult> group) {
+        int[] first = sizes(group.get(0).getParams().getParam("source"));
+        int varying = -1;
+        for (RunResult result : group) {
+            int[] sizes = sizes(result.getParams().getParam("source"));
+            for (int i = 0; i < sizes.length; i++) {
+                if (sizes[i] != first[i] && i != varying) {
+                    if (varying != -1)
+                        return null;
+                    varying = i;
+                }
+            }
+        }
+        if (varying == -1)
+            varying = 0;
+        StringBuilder title = new StringBuilder("gen:").append(generator(group.get(0).getParams().getParam("source")));
+        for (int i = 0; i < first.length; i++)
+            title.append(':').append(i == varying ? "n" : String.valueOf(first[i]));
+        Series series = new Series(group.get(0).getParams().getBenchmark() + " " + title);
+        for (RunResult result : group)
+            series.bySize.put(sizes(result.getParams().getParam("source"))[varying], result);
+        return series;
+    }
+
+    private void print(Series series, PrintStream out) {
+        // Growth against the lines of the sources rather than the size in the spec, when `SourceSizeProfiler` counted
+        // them. Only if the lines grow with the size, as a size that doesn't change them, e.g. the `depth` of
+        // `codebase`, would make the exponents infinite or NaN.
+        List<Double> xs = new ArrayList<>();
+        boolean byLines = true;
+        for (Map.Entry<Integer, RunResult> entry : series.bySize.entrySet()) {
+            Result<?> kloc = entry.getValue().getSecondaryResults().get(Defaults.PREFIX + "source.kloc");
+            if (kloc == null || !xs.isEmpty() && !(kloc.getScore() > xs.get(xs.size() - 1))) {
+                byLines = false;
+                break;
+            }
+            xs.add(kloc.getScore());
+        }
+        if (!byLines) {
+            xs.clear();
+            for (int n : series.bySize.keySet())
+                xs.add((double) n);
+        }
+
+        out.println();
+        out.println("Scaling of " + series.title + (byLines ? ", exponents against source.kloc" : ""));
+        StringBuilder header = new StringBuilder(String.format("%-32s %-10s", "n", ""));
+        for (int n : series.bySize.keySet())
+            header.append(String.format(" %16d", n));
+        out.println(header.append("   local exponents"));
+
+        RunResult first = series.bySize.firstEntry().getValue();
+        printMetric(first.getPrimaryResult().getLabel(), series, xs, r -> r.getPrimaryResult(), out);
+        for (String metric : metrics) {
+            printMetric(metric, series, xs, r -> r.getSecondaryResults().get(Defaults.PREFIX + metric), out);
+        }
+        for (String metric : perKloc) {
+            printMetric(metric + ".per.kloc", series, xs, r -> perKloc(r, metric), out);
+        }
+    }
+
+    // `metric` divided by `source.kloc`, or null if either is missing
+    private static Result<?> perKloc(RunResult result, String metric) {
+        Result<?> value = result.getSecondaryResults().get(Defaults.PREFIX + metric);
+        Result<?> kloc = result.getSecondaryResults().get(Defaults.PREFIX + "source.kloc");
+        if (value == null || kloc == null)
+            return null;
+        String unit = value.getScoreUnit();
+        unit = unit.endsWith("/op") ? unit.replace("/op", "/kLOC") : unit + "/kLOC";
+        return new ScalarResult(Defaults.PREFIX + metric + ".per.kloc", value.getScore() / kloc.getScore(), unit, AggregationPolicy.AVG);
+    }
+
+    private interface Selector {
+        Result<?> select(RunResult result);
+    }
+
+    private void printMetric(String name, Series series, List<Double> xs, Selector selector, PrintStream out) {
+        List<Double> scores = new ArrayList<>();
+        String unit = null;
+        for (Map.Entry<Integer, RunResult> entry : series.bySize.entrySet()) {
+            Result<?> result = selector.select(entry.getValue());
+            if (result == null)
+                return; // e.g. a metric of a profiler that wasn't enabled
+            scores.add(result.getScore());
+            unit = result.getScoreUnit();
+        }
+        StringBuilder line = new StringBuilder(String.format("%-32s %-10s", name, unit));
+        for (double score : scores)
+            line.append(String.format(" %16.3f", score));
+        line.append("  ");
+        double previous = Double.NaN;
+        boolean increasing = xs.size() > 2;
+        double exponent = Double.NaN;
+        for (int i = 1; i < xs.size(); i++) {
+            exponent = Math.log(scores.get(i) / scores.get(i - 1)) / Math.log(xs.get(i) / xs.get(i - 1));
+            if (!(exponent > previous) && i > 1)
+                increasing = false;
+            previous = exponent;
+            line.append(String.format(" %5.2f", exponent));
+        }
+        if (increasing && exponent > maxExponent)
+            line.append("  EXPONENTIAL?");
+        out.println(line);
+    }
+}
@@ -0,0 +1,284 @@
+package scala.bench;
+
+import com.google.common.base.Throwables;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.influxdb.InfluxDB;
+import org.influxdb.dto.Point;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.FileLockInterruptionException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Uploads points to InfluxDB in batches from a background thread. Points are first appended to a local
+// spool file, and only dropped from it once the database has acknowledged them, so results survive an
+// outage of the database. Points left in the spool are replayed by the next uploader using the same directory.
+//
+// Spool format: a sequence of records, each a 4 byte length followed by the UTF-8 line protocol of a point.
+// A separate file holds the offset of the first record that hasn't been acknowledged yet. Appending, reading a batch
+// and acknowledging it each hold the spool lock briefly. A batch is read, uploaded and acknowledged under the upload
+// lock, so that concurrent uploaders don't upload a batch twice, while the upload itself doesn't hold the spool lock,
+// so that `enqueue` isn't held up by a slow or unreachable database.
+public class SpoolingUploader implements AutoCloseable {
+    // Guard the spool and the upload of all uploaders in this JVM; file locks guard them against other JVMs.
+    private static final Object spoolLock = new Object();
+    private static final Object uploadLock = new Object();
+
+    private final Path spoolFile;
+    private final Path ackFile;
+    private final Path lockFile;
+    private final Path uploadLockFile;
+    private final Supplier<InfluxDB> connector;
+    private final String database;
+    private final String retentionPolicy;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long closeTimeoutMillis;
+    private final Thread flusher;
+    private final Object signal = new Object();
+    private volatile boolean closing = false;
+    private volatile boolean abandoned = false;
+    private InfluxDB influxDB;
+
+    public SpoolingUploader(Path spoolDir, Supplier<InfluxDB> connector, String database, String retentionPolicy,
+                            int batchSize, long flushIntervalMillis, long initialBackoffMillis, long maxBackoffMillis,
+                            long closeTimeoutMillis) {
+        this.spoolFile = spoolDir.resolve("points.spool");
+        this.ackFile = spoolDir.resolve("points.ack");
+        this.lockFile = spoolDir.resolve("points.lock");
+        this.uploadLockFile = spoolDir.resolve("points.upload.lock");
+        this.connector = connector;
+        this.database = database;
+        this.retentionPolicy = retentionPolicy;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.closeTimeoutMillis = closeTimeoutMillis;
+        try {
+            Files.createDirectories(spoolDir);
+            withSpoolLock(this::truncatePartialRecord);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.flusher = new Thread(this::flushLoop, "influx-uploader");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public static SpoolingUploader fromConfig(String database, String retentionPolicy) {
+        Config conf = ConfigFactory.load().getConfig("influx.spool");
+        return new SpoolingUploader(Paths.get(conf.getString("dir")), Database::connectDb, database, retentionPolicy,
+                conf.getInt("batchSize"),
+                conf.getDuration("flushInterval", TimeUnit.MILLISECONDS),
+                conf.getDuration("initialBackoff", TimeUnit.MILLISECONDS),
+                conf.getDuration("maxBackoff", TimeUnit.MILLISECONDS),
+                conf.getDuration("closeTimeout", TimeUnit.MILLISECONDS));
+    }
+
+    public void enqueue(Point point) {
+        byte[] record = point.lineProtocol().getBytes(StandardCharsets.UTF_8);
+        try {
+            withSpoolLock(() -> {
+                try (FileChannel channel = FileChannel.open(spoolFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ByteBuffer buffer = ByteBuffer.allocate(4 + record.length);
+                    buffer.putInt(record.length).put(record).flip();
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                    channel.force(false);
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    // The number of spooled points that have not been acknowledged by the database.
+    public int pending() {
+        try {
+            return withSpoolLock(() -> readBatch(Integer.MAX_VALUE).records.size());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!close(closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            System.err.println("Timed out uploading results, " + pending() + " point(s) remain in " + spoolFile + " for the next run");
+        }
+    }
+
+    // Waits up to `timeout` for the spool to be uploaded. Returns whether it was.
+    public boolean close(long timeout, TimeUnit unit) {
+        closing = true;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        try {
+            flusher.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // the HTTP client may swallow the interrupt, hence the flag
+        abandoned = true;
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (influxDB != null)
+            influxDB.close();
+        return pending() == 0;
+    }
+
+    private void flushLoop() {
+        long backoff = initialBackoffMillis;
+        try {
+            while (!abandoned) {
+                int uploaded;
+                try {
+                    uploaded = withLock(uploadLock, uploadLockFile, this::uploadBatch);
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to upload spooled points, retrying in " + backoff + "ms: " + Throwables.getRootCause(e));
+                    await(backoff);
+                    backoff = Math.min(backoff * 2, maxBackoffMillis);
+                    continue;
+                }
+                if (uploaded == 0) {
+                    if (closing)
+                        return;
+                    await(flushIntervalMillis);
+                } else {
+                    backoff = initialBackoffMillis;
+                }
+            }
+        } catch (InterruptedException | ClosedByInterruptException | FileLockInterruptionException e) {
+            // closed before the spool could be uploaded
+        } catch (IOException e) {
+            System.err.println(Throwables.getStackTraceAsString(e));
+        }
+    }
+
+    private void await(long millis) throws InterruptedException {
+        synchronized (signal) {
+            signal.wait(millis);
+        }
+    }
+
+    private static final class Batch {
+        final List<String> records;
+        final long end;
+
+        Batch(List<String> records, long end) {
+            this.records = records;
+            this.end = end;
+        }
+    }
+
+    // Returns the number of points uploaded, 0 if the spool is empty. Called with the upload lock held.
+    private int uploadBatch() throws IOException {
+        Batch batch = withSpoolLock(() -> readBatch(batchSize));
+        if (!batch.records.isEmpty()) {
+            if (influxDB == null)
+                influxDB = connector.get();
+            influxDB.write(database, retentionPolicy, InfluxDB.ConsistencyLevel.ALL, batch.records);
+            withSpoolLock(() -> acknowledge(batch.end));
+        }
+        return batch.records.size();
+    }
+
+    private Batch readBatch(int maxRecords) throws IOException {
+        List<String> records = new ArrayList<>();
+        long position = ackedOffset();
+        if (!Files.exists(spoolFile))
+            return new Batch(records, position);
+        try (FileChannel channel = FileChannel.open(spoolFile, StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            while (records.size() < maxRecords) {
+                length.clear();
+                if (channel.read(length, position) < 4)
+                    break;
+                length.flip();
+                ByteBuffer record = ByteBuffer.allocate(length.getInt());
+                if (channel.read(record, position + 4) < record.capacity())
+                    break;
+                records.add(new String(record.array(), StandardCharsets.UTF_8));
+                position += 4 + record.capacity();
+            }
+        }
+        return new Batch(records, position);
+    }
+
+    private Void acknowledge(long offset) throws IOException {
+        if (offset >= Files.size(spoolFile)) {
+            // everything has been uploaded, start afresh rather than let the spool grow
+            Files.delete(spoolFile);
+            Files.deleteIfExists(ackFile);
+        } else {
+            Path temp = ackFile.resolveSibling(ackFile.getFileName() + ".tmp");
+            Files.write(temp, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, ackFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return null;
+    }
+
+    private long ackedOffset() throws IOException {
+        if (!Files.exists(ackFile))
+            return 0L;
+        return Long.parseLong(new String(Files.readAllBytes(ackFile), StandardCharsets.UTF_8).trim());
+    }
+
+    // Drops a record left incomplete by a JVM that died while appending it, so that later records can be read.
+    private Void truncatePartialRecord() throws IOException {
+        if (Files.exists(spoolFile)) {
+            long end = readBatch(Integer.MAX_VALUE).end;
+            try (FileChannel channel = FileChannel.open(spoolFile, StandardOpenOption.WRITE)) {
+                if (channel.size() > end)
+                    channel.truncate(end);
+            }
+        }
+        return null;
+    }
+
+    private interface SpoolAction<T> {
+        T apply() throws IOException;
+    }
+
+    private <T> T withSpoolLock(SpoolAction<T> action) throws IOException {
+        return withLock(spoolLock, lockFile, action);
+    }
+
+    private static <T> T withLock(Object monitor, Path lockFile, SpoolAction<T> action) throws IOException {
+        synchronized (monitor) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    return action.apply();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+}
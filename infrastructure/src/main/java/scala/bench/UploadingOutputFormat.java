@@ -5,11 +5,11 @@ import org.apache.commons.lang3.time.DateFormatUtils;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.influxdb.InfluxDB;
-import org.influxdb.dto.BatchPoints;
 import org.influxdb.dto.Point;
 import org.openjdk.jmh.infra.BenchmarkParams;
 import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.Defaults;
+import org.openjdk.jmh.results.Result;
 import org.openjdk.jmh.results.RunResult;
 import org.openjdk.jmh.results.format.ResultFormat;
 import org.openjdk.jmh.results.format.ResultFormatFactory;
@@ -32,12 +32,15 @@ import static scala.bench.GitWalker.sanitize;
 
 public class UploadingOutputFormat extends DelegatingOutputFormat {
 
-    private final GitWalkerResult gitResult;
+    private final CommitIndex commitIndex;
+    private final SpoolingUploader uploader;
 
     public UploadingOutputFormat(OutputFormat delegate) {
         super(delegate);
-        Repository repository = GitFactory.openGit();
-        gitResult = GitWalker.walk(repository);
+        try (Repository repository = GitFactory.openGit()) {
+            commitIndex = CommitIndex.open().update(repository);
+        }
+        uploader = SpoolingUploader.fromConfig("scala_benchmark", "autogen");
     }
 
     @Override
@@ -50,6 +53,12 @@ public class UploadingOutputFormat extends DelegatingOutputFormat {
         }
     }
 
+    @Override
+    public void endRun(Collection<RunResult> result) {
+        super.endRun(result);
+        uploader.close();
+    }
+
     private byte[] toJSON(BenchmarkResult result) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try (PrintStream printStream = new PrintStream(out)) {
@@ -60,13 +69,7 @@ public class UploadingOutputFormat extends DelegatingOutputFormat {
     }
 
     private void uploadResult(BenchmarkResult result) {
-        InfluxDB influxDB = Database.connectDb();
         try (Repository repo = GitFactory.openGit()) {
-            BatchPoints batchPoints = BatchPoints
-                    .database("scala_benchmark")
-                    .retentionPolicy("autogen")
-                    .consistency(InfluxDB.ConsistencyLevel.ALL)
-                    .build();
             Point.Builder pointBuilder = Point.measurement("result");
             BenchmarkParams params = result.getParams();
             Collection<String> paramsKeys = params.getParamsKeys();
@@ -90,6 +93,11 @@ public class UploadingOutputFormat extends DelegatingOutputFormat {
                 pointBuilder.addField("scoreConfidenceUpper", scoreConfidence[1]);
             }
             pointBuilder.addField("extendedInfo", result.getPrimaryResult().extendedInfo());
+            for (Result<?> secondary : result.getSecondaryResults().values()) {
+                // e.g. `phase.typer.wall.norm` from `PhaseTimingProfiler`, without the JMH prefix
+                String field = secondary.getLabel().replace(Defaults.PREFIX, "");
+                pointBuilder.addField(field, secondary.getScore());
+            }
 
             String scalaVersion = System.getProperty("scalaVersion");
             String scalaRef = System.getProperty("scalaRef");
@@ -98,8 +106,8 @@ public class UploadingOutputFormat extends DelegatingOutputFormat {
                 throw new RuntimeException("Please provide -DscalaRef=...");
             }
             try {
-                String branch = gitResult.branchOfRef(scalaRef);
-                pointBuilder.tag("branch", branch);
+                String branch = commitIndex.branchOf(GitWalker.resolve(scalaRef, repo));
+                pointBuilder.tag("branch", branch == null ? "<none>" : branch);
             } catch (IllegalArgumentException iea ){
                 pointBuilder.tag("branch", "<none>");
             }
@@ -114,15 +122,12 @@ public class UploadingOutputFormat extends DelegatingOutputFormat {
                 pointBuilder.tag("scalaSha", revCommit.getName());
                 pointBuilder.addField("commitShortMessage", sanitize(revCommit.getShortMessage()));
                 logJSON(result, benchmarkName, scalaRef, revCommit);
-                pointBuilder.time(GitWalker.adjustCommitTime(revCommit), TimeUnit.MILLISECONDS);
-                batchPoints.point(pointBuilder.build());
-                influxDB.write(batchPoints);
+                pointBuilder.time(GitWalker.adjustCommitTime(walk, revCommit), TimeUnit.MILLISECONDS);
+                uploader.enqueue(pointBuilder.build());
             }
         } catch (Exception e) {
             Throwables.throwIfUnchecked(e);
             throw new RuntimeException(e);
-        } finally {
-            influxDB.close();
         }
     }
 
@@ -130,7 +135,7 @@ public class UploadingOutputFormat extends DelegatingOutputFormat {
         String timestamp = DateFormatUtils.format(new Date(), "yyyyMMdd_kkmmss");
         Path path = Paths.get(timestamp + "-" + scalaRef + "-" + benchmarkName + ".json");
         java.nio.file.Files.write(path, toJSON(result));
-        System.out.println("Uploading points to benchmark database for " + scalaRef + "/" + revCommit.getName() + ", " + revCommit.getCommitTime() + "s");
+        System.out.println("Queueing points for upload to benchmark database for " + scalaRef + "/" + revCommit.getName() + ", " + revCommit.getCommitTime() + "s");
         System.out.println("Data in JSON format: " + path);
     }
 
@@ -13,17 +13,35 @@ import java.io.FileNotFoundException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class UploadingRunner {
+    // Lightweight profilers whose secondary results are uploaded alongside the score. Any other
+    // profiler perturbs the measurement, so results are not uploaded when one is enabled.
+    private static final Set<String> UPLOADABLE_PROFILERS = new HashSet<>(Arrays.asList(
+            "scala.tools.nsc.PhaseTimingProfiler",
+            "scala.tools.nsc.AllocationProfiler",
+            "scala.tools.nsc.MemoryProfiler",
+            "scala.tools.nsc.WarmupCurveProfiler"
+    ));
+
     public static void main(String[] args) throws Exception {
         Options opts = ScalacBenchmarkRunner.setParameters(new CommandLineOptions(args));
+        ParallelForkRunner.checkConfig();
         OutputFormat outputFormat = createOutputFormat(opts);
-        if (opts.getProfilers().size() == 0) {
+        // The forced GCs of `MemoryProfiler:gcAtPhaseEnd=true` slow the compilation down
+        if (opts.getProfilers().stream().allMatch(p -> UPLOADABLE_PROFILERS.contains(p.getKlass()) && !p.getOpts().contains("gcAtPhaseEnd=true"))) {
             outputFormat = new UploadingOutputFormat(outputFormat);
         }
-        Runner runner = new Runner(opts, outputFormat);
-        runner.run();
+        if (ParallelForkRunner.isEnabled()) {
+            new ParallelForkRunner(opts, outputFormat).run();
+        } else {
+            Runner runner = new Runner(opts, outputFormat);
+            runner.run();
+        }
     }
 
     private static OutputFormat createOutputFormat(Options options) {
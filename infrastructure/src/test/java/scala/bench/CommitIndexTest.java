@@ -0,0 +1,150 @@
+package scala.bench;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CommitIndexTest {
+    private Path repoDir;
+    private Path indexDir;
+    private Git git;
+    private long time = 1_500_000_000L;
+    private String[][] branches;
+
+    @Before
+    public void createRepo() throws Exception {
+        repoDir = Files.createTempDirectory("repo");
+        indexDir = Files.createTempDirectory("index");
+        git = Git.init().setDirectory(repoDir.toFile()).call();
+        commit(); // the root, before the fork point
+        branches = new String[][]{{"master", commit().getName()}};
+    }
+
+    @After
+    public void deleteRepo() throws IOException {
+        git.close();
+        for (Path dir : new Path[]{repoDir, indexDir}) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+    }
+
+    private RevCommit commit() throws Exception {
+        time += 60;
+        return commitAt(time);
+    }
+
+    private RevCommit commitAt(long time) throws Exception {
+        PersonIdent ident = new PersonIdent("a", "a@example.com", new Date(time * 1000), TimeZone.getTimeZone("UTC"));
+        return git.commit().setAllowEmpty(true).setMessage("c" + time).setAuthor(ident).setCommitter(ident).call();
+    }
+
+    private List<RevCommit> commits(int count) throws Exception {
+        List<RevCommit> commits = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            commits.add(commit());
+        return commits;
+    }
+
+    private CommitIndex update() {
+        return CommitIndex.open(indexDir).update(git.getRepository(), branches);
+    }
+
+    // `first` is the first commit after the fork point, at depth 1
+    private static void assertIndexed(CommitIndex index, List<RevCommit> commits, int firstDepth) {
+        for (int i = 0; i < commits.size(); i++) {
+            CommitIndex.Entry entry = index.get(commits.get(i));
+            assertNotNull(commits.get(i).getName(), entry);
+            assertEquals("master", entry.branch);
+            assertEquals(firstDepth + i, entry.depth);
+            assertEquals(commits.get(i).getCommitTime() * 1000L, entry.adjustedCommitTime);
+            assertNull(entry.tag);
+        }
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() {
+        CommitIndex index = CommitIndex.open(indexDir);
+        assertNull(index.get(ObjectId.zeroId()));
+        assertNull(index.branchOf(ObjectId.zeroId()));
+    }
+
+    @Test
+    public void updatesIncrementallyAndAfterRewrites() throws Exception {
+        ObjectId forkPoint = git.getRepository().resolve(branches[0][1]);
+
+        // more commits than the initial capacity, so that the table grows and probes collide
+        List<RevCommit> first = commits(40);
+        CommitIndex index = update();
+        assertEquals(0, index.get(forkPoint).depth);
+        assertIndexed(index, first, 1);
+        assertNull(index.get(ObjectId.zeroId()));
+        assertTrue(index.isFirstParentAncestor(first.get(3), first.get(30)));
+        assertFalse(index.isFirstParentAncestor(first.get(30), first.get(3)));
+
+        // nothing changed, the same index is returned
+        assertSame(index, index.update(git.getRepository(), branches));
+
+        List<RevCommit> second = commits(5);
+        index = update();
+        assertIndexed(index, first, 1);
+        assertIndexed(index, second, 41);
+
+        // rewrite the branch from the fork point: the new commits are indexed from depth 1 again
+        git.reset().setMode(ResetCommand.ResetType.HARD).setRef(forkPoint.getName()).call();
+        List<RevCommit> rewritten = commits(3);
+        index = update();
+        assertIndexed(index, rewritten, 1);
+        // the commits of the old history are dropped, rather than answer for a history that is gone
+        for (RevCommit orphan : first)
+            assertNull(index.get(orphan));
+        assertNull(index.isFirstParentAncestor(first.get(0), rewritten.get(2)));
+        assertNull(index.isFirstParentAncestor(second.get(4), rewritten.get(2)));
+        assertTrue(index.isFirstParentAncestor(forkPoint, rewritten.get(2)));
+
+        // a tag pushed after its commit was indexed
+        RevCommit tagged = rewritten.get(1);
+        git.tag().setName("v1.0.0").setObjectId(tagged).setAnnotated(true).setMessage("v1.0.0").call();
+        index = update();
+        assertEquals("v1.0.0", index.get(tagged).tag);
+        assertNull(index.get(rewritten.get(0)).tag);
+        assertNull(index.get(rewritten.get(2)).tag);
+        assertEquals(2, index.get(tagged).depth);
+    }
+
+    @Test(timeout = 10000)
+    public void ordersCommitsMadeInTheSameSecond() throws Exception {
+        time += 60;
+        List<RevCommit> sameSecond = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            sameSecond.add(commitAt(time));
+        CommitIndex index = update();
+        for (int i = 0; i < sameSecond.size(); i++)
+            assertEquals(time * 1000L + i * 10, index.get(sameSecond.get(i)).adjustedCommitTime);
+
+        // only parents in the same second count, when the run continues past the indexed head
+        RevCommit next = commitAt(time);
+        RevCommit later = commit();
+        index = update();
+        assertEquals(time * 1000L - 60_000L + 30, index.get(next).adjustedCommitTime);
+        assertEquals(time * 1000L, index.get(later).adjustedCommitTime);
+    }
+}
@@ -0,0 +1,148 @@
+package scala.bench;
+
+import com.sun.net.httpserver.HttpServer;
+import org.influxdb.InfluxDBFactory;
+import org.influxdb.dto.Point;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SpoolingUploaderTest {
+    private HttpServer influx;
+    private final List<String> writes = new CopyOnWriteArrayList<>();
+    private volatile int status = 204;
+    // When set, writes wait for it, after counting down `writeReceived`
+    private volatile CountDownLatch releaseWrites;
+    private final CountDownLatch writeReceived = new CountDownLatch(1);
+    private Path spoolDir;
+
+    // Stands in for the `/write` endpoint of InfluxDB
+    @Before
+    public void startInflux() throws IOException {
+        influx = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        influx.createContext("/write", exchange -> {
+            CountDownLatch release = releaseWrites;
+            if (release != null) {
+                writeReceived.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (status == 204)
+                writes.add(readAll(exchange.getRequestBody()));
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        influx.start();
+        spoolDir = Files.createTempDirectory("spool");
+    }
+
+    @After
+    public void stopInflux() throws IOException {
+        influx.stop(0);
+        try (Stream<Path> files = Files.walk(spoolDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    private SpoolingUploader uploader() {
+        String url = "http://127.0.0.1:" + influx.getAddress().getPort();
+        return new SpoolingUploader(spoolDir, () -> InfluxDBFactory.connect(url, "user", "password"),
+                "scala_benchmark", "autogen", 2, 10, 10, 50, 10_000);
+    }
+
+    private static Point point(int i) {
+        return Point.measurement("result").time(i, TimeUnit.MILLISECONDS).tag("benchmark", "b" + i).addField("score", i).build();
+    }
+
+    @Test
+    public void uploadsInBatches() {
+        SpoolingUploader uploader = uploader();
+        for (int i = 0; i < 5; i++)
+            uploader.enqueue(point(i));
+        assertTrue(uploader.close(10, TimeUnit.SECONDS));
+        String uploaded = String.join("\n", writes);
+        for (int i = 0; i < 5; i++)
+            assertTrue(uploaded, uploaded.contains("benchmark=b" + i));
+        assertTrue(writes.size() >= 3);
+        assertFalse(Files.exists(spoolDir.resolve("points.spool")));
+    }
+
+    @Test
+    public void replaysSpoolAfterOutage() {
+        status = 500;
+        SpoolingUploader uploader = uploader();
+        for (int i = 0; i < 3; i++)
+            uploader.enqueue(point(i));
+        assertFalse(uploader.close(200, TimeUnit.MILLISECONDS));
+        assertEquals(3, uploader.pending());
+        assertTrue(writes.isEmpty());
+
+        status = 204;
+        SpoolingUploader next = uploader();
+        assertTrue(next.close(10, TimeUnit.SECONDS));
+        assertEquals(0, next.pending());
+        String uploaded = String.join("\n", writes);
+        for (int i = 0; i < 3; i++)
+            assertTrue(uploaded, uploaded.contains("benchmark=b" + i));
+    }
+
+    @Test
+    public void concurrentUploadersUploadEachPointOnce() {
+        SpoolingUploader first = uploader();
+        SpoolingUploader second = uploader();
+        for (int i = 0; i < 20; i++)
+            (i % 2 == 0 ? first : second).enqueue(point(i));
+        assertTrue(first.close(10, TimeUnit.SECONDS));
+        assertTrue(second.close(10, TimeUnit.SECONDS));
+        String uploaded = String.join("\n", writes);
+        for (int i = 0; i < 20; i++) {
+            String tag = "benchmark=b" + i + " ";
+            assertEquals(uploaded, uploaded.indexOf(tag), uploaded.lastIndexOf(tag));
+            assertTrue(uploaded, uploaded.contains(tag));
+        }
+    }
+
+    @Test
+    public void enqueueDoesNotWaitForUpload() throws InterruptedException {
+        releaseWrites = new CountDownLatch(1);
+        SpoolingUploader uploader = uploader();
+        uploader.enqueue(point(0));
+        assertTrue(writeReceived.await(10, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        uploader.enqueue(point(1));
+        long enqueueMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        releaseWrites.countDown();
+        assertTrue("enqueue waited " + enqueueMillis + "ms for the upload in flight", enqueueMillis < 1000);
+        assertTrue(uploader.close(10, TimeUnit.SECONDS));
+        String uploaded = String.join("\n", writes);
+        assertTrue(uploaded, uploaded.contains("benchmark=b0 ") && uploaded.contains("benchmark=b1 "));
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
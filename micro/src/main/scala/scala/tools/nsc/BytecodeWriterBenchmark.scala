@@ -0,0 +1,80 @@
+package scala.tools.nsc
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.Mode._
+import org.openjdk.jmh.annotations._
+
+import scala.reflect.internal.util.BatchSourceFile
+import scala.reflect.io.VirtualDirectory
+
+// Generates and serializes the classfile of one class of `file` per op, cycling through its classes, from the
+// trees and symbols left by a compilation of `file`. The primary result is classfiles per
+// second; `-prof gc` reports the allocation per classfile (`gc.alloc.rate.norm`), and the `bytes` counter the
+// classfile bytes per second.
+@BenchmarkMode(Array(Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 4)
+@State(Scope.Thread)
+class BytecodeWriterBenchmark {
+  var g: Global = _
+  var classes: Array[(Global#ClassDef, Global#CompilationUnit)] = _
+  var i = 0
+
+  @Param(Array("../corpus/vector/latest/Vector.scala"))
+  var file: String = _
+
+  @Setup def setup(): Unit = {
+    val settings = new Settings()
+    settings.usejavacp.value = true
+    settings.outputDirs.setSingleOutput(new VirtualDirectory("(memory)", None))
+    val global = new Global(settings)
+    g = global
+
+    val run = new global.Run()
+    val source = new BatchSourceFile(io.AbstractFile.getFile(file))
+    run.compileSources(source :: Nil)
+    assert(!global.reporter.hasErrors)
+    classes = (for {
+      unit <- run.units
+      cd @ global.ClassDef(_, _, _, _) <- unit.body
+    } yield (cd, unit)).toArray
+    assert(classes.nonEmpty)
+
+    // What the `jvm` phase does before generating the classes of a run, as the caches of the backend
+    // were cleared at the end of the run
+    import global.genBCode._
+    global.enteringPhase(run.jvmPhase) {
+      bTypes.initialize()
+      codeGen.initialize()
+      postProcessorFrontendAccess.initialize()
+      postProcessor.initialize(global)
+    }
+  }
+
+  @Benchmark def measure(counters: BytecodeWriterCounters): Array[Byte] = {
+    val global = g
+    import global._
+    val (cd, unit) = classes(i).asInstanceOf[(ClassDef, CompilationUnit)]
+    i = (i + 1) % classes.length
+    val bytes = enteringPhase(currentRun.jvmPhase) {
+      val classNode = genBCode.codeGen.genClass(cd, unit)
+      genBCode.postProcessor.localOptimizations(classNode)
+      genBCode.postProcessor.setInnerClasses(classNode)
+      genBCode.postProcessor.serializeClass(classNode)
+    }
+    counters.bytes += bytes.length
+    bytes
+  }
+}
+
+// Classfile bytes written by `BytecodeWriterBenchmark`, reported per second
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+class BytecodeWriterCounters {
+  var bytes: Long = 0
+
+  @Setup(Level.Iteration) def reset(): Unit = bytes = 0
+}
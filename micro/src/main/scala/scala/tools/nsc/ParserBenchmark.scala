@@ -0,0 +1,106 @@
+package scala.tools.nsc
+
+import java.nio.file.{FileVisitOption, Files, Path, Paths}
+import java.util.concurrent.TimeUnit
+import java.util.stream.Collectors
+
+import org.openjdk.jmh.annotations.Mode._
+import org.openjdk.jmh.annotations._
+
+import scala.collection.JavaConverters._
+import scala.reflect.internal.util.{BatchSourceFile, SourceFile}
+import scala.tools.nsc.ast.parser.Tokens
+
+// Scans or parses the `.scala` files of `source`, read into memory once, without the rest of the compiler.
+// An op covers all the selected files; the `tokens` and `trees` counters report tokens and trees per second.
+// Select one file with `-pfile=<path relative to source>`, or several to compare files, e.g.
+// `-pfile=$(cd corpus/scalap/latest && find . -name '*.scala' | paste -sd, -)`.
+@BenchmarkMode(Array(Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 4)
+@State(Scope.Thread)
+class ParserBenchmark {
+  var g: Global = _
+  var sources: Array[SourceFile] = _
+  var tokenCount = 0L
+  var treeCount = 0L
+
+  @Param(Array("../corpus/scalap/latest"))
+  var source: String = _
+
+  // `*` for all the files of `source`
+  @Param(Array("*"))
+  var file: String = _
+
+  @Setup def setup(): Unit = {
+    val settings = new Settings()
+    settings.usejavacp.value = true
+    val global = new Global(settings)
+    g = global
+    new global.Run()
+
+    val dir = Paths.get(source)
+    val files: List[Path] =
+      if (file == "*") Files.walk(dir, FileVisitOption.FOLLOW_LINKS).collect(Collectors.toList[Path]).asScala.toList.filter(_.toString.endsWith(".scala")).sortBy(_.toString)
+      else List(dir.resolve(file))
+    sources = files.map(f => new BatchSourceFile(io.AbstractFile.getFile(f.toFile))).toArray
+    assert(sources.nonEmpty)
+
+    tokenCount = scanAll()
+    treeCount = parseAll().map(tree => {
+      var n = 0L
+      tree.foreach(_ => n += 1)
+      n
+    }).sum
+    assert(!global.reporter.hasErrors)
+  }
+
+  private def scanAll(): Long = {
+    val global = g
+    var count = 0L
+    for (source <- sources) {
+      val scanner = new global.syntaxAnalyzer.SourceFileScanner(source)
+      scanner.init()
+      while (scanner.token != Tokens.EOF) {
+        count += 1
+        scanner.nextToken()
+      }
+    }
+    count
+  }
+
+  private def parseAll(): Array[Global#Tree] = {
+    val global = g
+    sources.map(source => new global.syntaxAnalyzer.SourceFileParser(source).parse(): Global#Tree)
+  }
+
+  @Benchmark def scan(counter: TokenCounter): Long = {
+    counter.tokens += tokenCount
+    scanAll()
+  }
+
+  @Benchmark def parse(counter: TreeCounter): Array[Global#Tree] = {
+    counter.trees += treeCount
+    parseAll()
+  }
+}
+
+// Tokens scanned by `ParserBenchmark.scan`, reported per second
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+class TokenCounter {
+  var tokens: Long = 0
+
+  @Setup(Level.Iteration) def reset(): Unit = tokens = 0
+}
+
+// Trees parsed by `ParserBenchmark.parse`, reported per second
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+class TreeCounter {
+  var trees: Long = 0
+
+  @Setup(Level.Iteration) def reset(): Unit = trees = 0
+}
@@ -0,0 +1,62 @@
+package scala.tools.nsc
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.Mode._
+import org.openjdk.jmh.annotations._
+
+import scala.reflect.internal.util.BatchSourceFile
+
+// Runs namer and typer over `file` in a new `Run` of the same `Global` per op, from a parse tree cached in
+// `setup`, so a hot compiler is measured without the parser or the phases after typer. Run with `-prof gc`
+// for the allocation per op.
+@BenchmarkMode(Array(Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 4)
+@State(Scope.Thread)
+class TyperBenchmark {
+  var g: Global = _
+  var parsed: Global#Tree = _
+  var run: Global#Run = _
+  var unit: Global#CompilationUnit = _
+
+  @Param(Array("../corpus/vector/latest/Vector.scala"))
+  var file: String = _
+
+  @Setup def setup(): Unit = {
+    val settings = new Settings()
+    settings.usejavacp.value = true
+    settings.stopAfter.value = List("typer")
+    val global = new Global(settings)
+    g = global
+
+    new global.Run()
+    val source = new BatchSourceFile(io.AbstractFile.getFile(file))
+    parsed = new global.syntaxAnalyzer.UnitParser(new global.CompilationUnit(source)).parse()
+    assert(!global.reporter.hasErrors)
+
+    newRun()
+    typecheck()
+    assert(!global.reporter.hasErrors)
+    assert(unit.body.tpe != null)
+  }
+
+  // Typer mutates the trees it types, so each op needs a fresh copy of the parse tree
+  @Setup(Level.Invocation) def newRun(): Unit = {
+    val global = g
+    val newRun = new global.Run()
+    val newUnit = new global.CompilationUnit(parsed.pos.source)
+    newUnit.body = parsed.asInstanceOf[global.Tree].duplicate
+    run = newRun
+    unit = newUnit
+  }
+
+  @Benchmark def typecheck(): Any = {
+    val global = g
+    val r = run.asInstanceOf[global.Run]
+    r.compileUnits(unit.asInstanceOf[global.CompilationUnit] :: Nil, r.namerPhase)
+    unit.body
+  }
+}
@@ -32,7 +32,7 @@ object Profiler {
 }
 
 case object basic extends Profiler("basic") {
-  def command(outDir: File): String = "-jvmArgs -Xprof -prof hs_comp -prof gc -prof stack -prof hs_rt -prof scala.tools.nsc.ThreadCpuTimeProfiler"
+  def command(outDir: File): String = "-jvmArgs -Xprof -prof hs_comp -prof gc -prof stack -prof hs_rt -prof scala.tools.nsc.ThreadCpuTimeProfiler -prof scala.tools.nsc.PhaseTimingProfiler"
 }
 case object jfr extends Profiler("jfr") {
   def command(outDir: File): String = s"-prof jmh.extras.JFR:dir=${outDir.getAbsolutePath};flameGraphOpts=$flameGraphOpts;verbose=true'"